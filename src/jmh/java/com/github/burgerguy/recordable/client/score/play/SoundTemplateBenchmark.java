@@ -0,0 +1,87 @@
+package com.github.burgerguy.recordable.client.score.play;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.minecraft.client.resources.sounds.Sound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The part of playing a note that used to allocate, which is giving the sound its attenuation distance. Run with the
+ * gc profiler, {@link #newSoundPerNote} is how it was done before {@link SoundTemplateCache}, and
+ * {@link #cachedSound} is how it's done now. The sound instance itself is left out, since both allocate one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoundTemplateBenchmark {
+    private static final int NOTES = 1024;
+    private static final int ATTENUATION_DISTANCE = 16;
+
+    private Sound[] noteSounds;
+    private int[] noteAttenuations;
+    private SoundTemplateCache soundTemplates;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the note block sounds, as they're defined in sounds.json
+        String[] instruments = { "harp", "bass", "bd", "snare", "hat", "bell", "flute", "icechime", "guitar", "xylobone" };
+        Sound[] sounds = new Sound[instruments.length];
+        for (int i = 0; i < instruments.length; i++) {
+            sounds[i] = new Sound("minecraft:note/" + instruments[i], 1.0F, 1.0F, 1, Sound.Type.FILE, false, false, ATTENUATION_DISTANCE);
+        }
+
+        // the same volumes and attenuations BlockMonoScorePlayer plays notes at
+        Random random = new Random(1234);
+        this.noteSounds = new Sound[NOTES];
+        this.noteAttenuations = new int[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            this.noteSounds[i] = sounds[random.nextInt(sounds.length)];
+            float outputVolume = 1.0F + random.nextInt(3);
+            this.noteAttenuations[i] = Math.round(ATTENUATION_DISTANCE / Math.max(outputVolume, 1.0F));
+        }
+
+        // sound events aren't looked up here, so it doesn't need a sound manager
+        this.soundTemplates = new SoundTemplateCache(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void newSoundPerNote(Blackhole blackhole) {
+        for (int i = 0; i < NOTES; i++) {
+            Sound sound = this.noteSounds[i];
+            blackhole.consume(new Sound(
+                    sound.getLocation().toString(),
+                    sound.getVolume(),
+                    sound.getPitch(),
+                    sound.getWeight(),
+                    sound.getType(),
+                    sound.shouldStream(),
+                    sound.shouldPreload(),
+                    this.noteAttenuations[i]
+            ));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTES)
+    public void cachedSound(Blackhole blackhole) {
+        for (int i = 0; i < NOTES; i++) {
+            blackhole.consume(this.soundTemplates.getAttenuated(this.noteSounds[i], this.noteAttenuations[i]));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.burgerguy.recordable.server.score.record;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import com.mojang.math.Quaternion;
+import com.mojang.math.Vector3f;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.sounds.SoundEvent;
+import net.minecraft.sounds.SoundEvents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One server tick of note blocks playing near recorders: every sound goes through the registry, then every recorder
+ * writes what it heard. Run with the gc profiler, the allocation rate per tick should stay at about 0 bytes no matter
+ * how many recorders there are.
+ * <p>
+ * Checkpoints are turned off and recorders are restarted before their first segment fills up, so nothing here touches
+ * the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CaptureBenchmark {
+    /**
+     * Small enough that even 255 sounds a tick never fills a segment.
+     */
+    private static final int TICKS_PER_RECORDING = 128;
+
+    @Param({"1", "16", "64"})
+    public int recorderCount;
+
+    @Param({"1", "16", "64"})
+    public int soundsPerTick;
+
+    private Path configDir;
+    private ScoreRecorderRegistry registry;
+    private SoundEvent[] sounds;
+    private float[] pitches;
+    private int ticksRecorded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+
+        this.configDir = Files.createTempDirectory("recordable-benchmark");
+        Path configPath = this.configDir.resolve(RecordableConfig.FILE_NAME);
+        Files.writeString(configPath, ScoreRecorder.CHECKPOINT_SECONDS_KEY + "=0\n", StandardCharsets.UTF_8);
+        Recordable.CONFIG = RecordableConfig.load(configPath);
+
+        this.registry = new ScoreRecorderRegistry();
+        this.sounds = new SoundEvent[] { SoundEvents.NOTE_BLOCK_HARP, SoundEvents.NOTE_BLOCK_BASS, SoundEvents.NOTE_BLOCK_SNARE, SoundEvents.NOTE_BLOCK_HAT };
+        this.pitches = new float[25];
+        for (int i = 0; i < this.pitches.length; i++) {
+            this.pitches[i] = (float) Math.pow(2.0, (i - 12) / 12.0);
+        }
+        this.startRecorders();
+    }
+
+    private void startRecorders() {
+        this.registry.removeAndCloseAll();
+        for (int i = 0; i < this.recorderCount; i++) {
+            // spread out over a few sections, all within range of the sounds
+            ScoreRecorder recorder = new FixedScoreRecorder(i % 8 * 4 + 0.5, 64.5, i / 8 * 4 + 0.5);
+            this.registry.add(recorder);
+            recorder.start();
+        }
+        this.ticksRecorded = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.registry.removeAndCloseAll();
+        Files.deleteIfExists(this.configDir.resolve(RecordableConfig.FILE_NAME));
+        Files.deleteIfExists(this.configDir);
+    }
+
+    @Benchmark
+    public void captureTick() {
+        if (this.ticksRecorded++ == TICKS_PER_RECORDING) this.startRecorders();
+        for (int i = 0; i < this.soundsPerTick; i++) {
+            this.registry.captureSound(
+                    this.sounds[i % this.sounds.length],
+                    i % 16 + 0.5,
+                    64.5,
+                    i / 16 * 2 + 0.5,
+                    3.0F,
+                    this.pitches[i % this.pitches.length]
+            );
+        }
+        this.registry.tick();
+    }
+
+    private static class FixedScoreRecorder extends ScoreRecorder {
+        private final double x;
+        private final double y;
+        private final double z;
+
+        FixedScoreRecorder(double x, double y, double z) {
+            // never stopped, only closed
+            super(null, (recorder, recordId) -> {});
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public double getXPos() {
+            return this.x;
+        }
+
+        @Override
+        public double getYPos() {
+            return this.y;
+        }
+
+        @Override
+        public double getZPos() {
+            return this.z;
+        }
+
+        @Override
+        public Quaternion createRotation() {
+            return Vector3f.YP.rotationDegrees(90.0F);
+        }
+
+        @Override
+        public boolean isInRange(double x, double y, double z, float volume) {
+            double range = getSoundRange(volume);
+            double dx = x - this.x;
+            double dy = y - this.y;
+            double dz = z - this.z;
+            return dx * dx + dy * dy + dz * dz <= range * range;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.Registry;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.sounds.SoundEvent;
+import net.minecraft.sounds.SoundEvents;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes a note block song, as recorded and as stored, at a few compression levels. The
+ * {@link Sizes} counters add up the bytes going in and out of each call, so the ratio is encodedBytes / scoreBytes.
+ * <p>
+ * {@link #deflateWithoutDictionary} is the same as {@link #encode} without the preset dictionary, so the two show
+ * what the dictionary is worth.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoreCodecBenchmark {
+    /**
+     * About 5 minutes, which is a typical song.
+     */
+    private static final int TICKS = 6000;
+
+    @Param({"0", "2"}) // ScoreFormat.V1 and ScoreFormat.V3
+    public int formatVersion;
+
+    @Param({"1", "6", "9"})
+    public int compressionLevel;
+
+    private ByteBuffer score;
+    private ScoreCodec codec;
+    private Deflater deflater;
+    private ByteBuffer deflateOutput;
+    private ByteBuffer storedScore;
+    private ByteBuffer decodeOutput;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long scoreBytes;
+        public long encodedBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+
+        ByteBuffer recordedScore = createRecordedScore(new Random(1234));
+        if (this.formatVersion == ScoreFormat.V1) {
+            this.score = recordedScore;
+        } else {
+            try (ScoreEncoder encoder = new ScoreEncoder()) {
+                this.score = copy(encoder.encode(recordedScore, ScoreFormat.V1));
+            }
+        }
+
+        this.codec = new ScoreCodec(this.compressionLevel);
+        this.deflater = new Deflater(this.compressionLevel);
+        this.deflateOutput = ByteBuffer.allocateDirect(this.score.remaining() * 2);
+        this.storedScore = copy(this.codec.encode(this.score, this.formatVersion));
+        this.decodeOutput = ByteBuffer.allocateDirect(ScoreCodec.getDecodedSize(this.storedScore)).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Note block sounds from around the recorder, the same way a recorder writes them.
+     */
+    private static ByteBuffer createRecordedScore(Random random) {
+        SoundEvent[] instruments = { SoundEvents.NOTE_BLOCK_HARP, SoundEvents.NOTE_BLOCK_BASS, SoundEvents.NOTE_BLOCK_BASEDRUM, SoundEvents.NOTE_BLOCK_SNARE, SoundEvents.NOTE_BLOCK_HAT };
+        ByteBuffer score = ByteBuffer.allocateDirect(ScoreConstants.MAX_RECORD_SIZE_BYTES).order(ByteOrder.BIG_ENDIAN);
+        for (int tick = 0; tick < TICKS; tick += 2 + random.nextInt(3)) {
+            int soundCount = 1 + random.nextInt(3);
+            score.putShort((short) tick);
+            score.put((byte) soundCount);
+            for (int i = 0; i < soundCount; i++) {
+                score.putInt(Registry.SOUND_EVENT.getId(instruments[random.nextInt(instruments.length)]));
+                score.putFloat(random.nextInt(5) - 2 + 0.5F);
+                score.putFloat(random.nextInt(2) - 1 + 0.5F);
+                score.putFloat(random.nextInt(5) - 2 + 0.5F);
+                score.putFloat(3.0F);
+                score.putFloat((float) Math.pow(2.0, (random.nextInt(25) - 12) / 12.0));
+            }
+        }
+        score.putShort((short) TICKS);
+        score.put((byte) 0);
+        return score.flip();
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocateDirect(buffer.remaining()).order(ByteOrder.BIG_ENDIAN);
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.codec.close();
+        this.deflater.end();
+    }
+
+    @Benchmark
+    public ByteBuffer encode(Sizes sizes) {
+        ByteBuffer encoded = this.codec.encode(this.score, this.formatVersion);
+        sizes.scoreBytes += this.score.remaining();
+        sizes.encodedBytes += encoded.remaining();
+        return encoded;
+    }
+
+    @Benchmark
+    public ByteBuffer deflateWithoutDictionary(Sizes sizes) {
+        this.deflater.reset();
+        this.deflater.setInput(this.score.duplicate());
+        this.deflater.finish();
+        ByteBuffer output = this.deflateOutput.clear();
+        while (!this.deflater.finished()) {
+            this.deflater.deflate(output);
+        }
+        sizes.scoreBytes += this.score.remaining();
+        // the same header and decoded size the codec writes
+        sizes.encodedBytes += ScoreCodec.HEADER_SIZE_BYTES + Integer.BYTES + output.position();
+        return output;
+    }
+
+    @Benchmark
+    public ByteBuffer decode(Sizes sizes) throws DataFormatException {
+        ByteBuffer output = this.decodeOutput.clear();
+        ScoreCodec.decode(this.storedScore, output);
+        sizes.scoreBytes += output.position();
+        sizes.encodedBytes += this.storedScore.remaining();
+        return output;
+    }
+}
@@ -3,6 +3,9 @@ package com.github.burgerguy.recordable.client;
 import com.github.burgerguy.recordable.client.network.ClientPacketHandler;
 import com.github.burgerguy.recordable.client.render.blockentity.RecorderBlockRenderer;
 import com.github.burgerguy.recordable.client.render.blockentity.RecorderItemRenderer;
+import com.github.burgerguy.recordable.client.score.ScoreDecoder;
+import com.github.burgerguy.recordable.client.score.cache.ScoreCacheContainer;
+import com.github.burgerguy.recordable.client.score.cache.ScoreDiskCache;
 import com.github.burgerguy.recordable.client.score.play.ScorePlayerRegistry;
 import com.github.burgerguy.recordable.client.score.play.ScorePlayerRegistryContainer;
 import com.github.burgerguy.recordable.shared.Recordable;
@@ -15,30 +18,49 @@ import net.fabricmc.fabric.api.client.rendering.v1.BlockEntityRendererRegistry;
 import net.fabricmc.fabric.api.client.rendering.v1.BuiltinItemRendererRegistry;
 import net.fabricmc.fabric.api.client.rendering.v1.ColorProviderRegistry;
 import net.minecraft.client.gui.screens.MenuScreens;
+import org.quiltmc.loader.api.QuiltLoader;
+import org.quiltmc.qsl.lifecycle.api.client.event.ClientLifecycleEvents;
 import org.quiltmc.qsl.lifecycle.api.client.event.ClientWorldTickEvents;
 import org.quiltmc.qsl.networking.api.client.ClientPlayNetworking;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientPacketListener;
 import net.minecraft.client.renderer.blockentity.BlockEntityRendererProvider;
 import org.quiltmc.loader.api.ModContainer;
 import org.quiltmc.qsl.base.api.entrypoint.client.ClientModInitializer;
 
 public class RecordableClient implements ClientModInitializer {
+    private static ScoreDiskCache SCORE_DISK_CACHE;
+    private static ScoreDecoder SCORE_DECODER;
 
     @Override
     public void onInitializeClient(ModContainer modContainer) {
+        SCORE_DISK_CACHE = new ScoreDiskCache(QuiltLoader.getGameDir().resolve(Recordable.MOD_ID).resolve(ScoreDiskCache.DIRECTORY_NAME), Recordable.CONFIG);
+        SCORE_DECODER = new ScoreDecoder(Recordable.CONFIG);
+
         //// networking registry
         ClientPlayNetworking.registerGlobalReceiver(Recordable.PLAY_SCORE_INSTANCE_AT_POS_ID, ClientPacketHandler::receivePlayScoreInstancePosPacket);
         ClientPlayNetworking.registerGlobalReceiver(Recordable.STOP_SCORE_INSTANCE_ID, ClientPacketHandler::receiveStopScoreInstancePacket);
         ClientPlayNetworking.registerGlobalReceiver(Recordable.SET_SCORE_INSTANCE_PAUSED_ID, ClientPacketHandler::receiveSetScoreInstancePausedPacket);
         ClientPlayNetworking.registerGlobalReceiver(Recordable.SEND_SCORE_ID, ClientPacketHandler::receiveSentScorePacket);
+        ClientPlayNetworking.registerGlobalReceiver(Recordable.SEND_SCORE_MANIFEST_ID, ClientPacketHandler::receiveSentScoreManifestPacket);
+        ClientPlayNetworking.registerGlobalReceiver(Recordable.SEND_SCORE_DATABASE_ID, ClientPacketHandler::receiveScoreDatabasePacket);
 
         //// event registry
+        ClientLifecycleEvents.STOPPING.register(client -> {
+            SCORE_DECODER.close();
+            // lets queued writes finish
+            SCORE_DISK_CACHE.close();
+        });
+
         // TODO: should this be end world tick or end client tick?
         ClientWorldTickEvents.END.register((client, level) -> {
             // this probably will never be null. in a single player world the connection still exists, but it's just local
             @SuppressWarnings("ConstantConditions")
-            ScorePlayerRegistry scorePlayerRegistry = ((ScorePlayerRegistryContainer) Minecraft.getInstance().getConnection()).getScorePlayerRegistry();
+            ClientPacketListener connection = Minecraft.getInstance().getConnection();
+            ScorePlayerRegistry scorePlayerRegistry = ((ScorePlayerRegistryContainer) connection).getScorePlayerRegistry();
             scorePlayerRegistry.tick();
+            // after the players, so scores they've just let go of can be evicted
+            ((ScoreCacheContainer) connection).getScoreCache().trim();
         });
 
         //// color provider registry
@@ -51,4 +73,12 @@ public class RecordableClient implements ClientModInitializer {
         //// screen registry
         MenuScreens.register(LabelerMenu.INSTANCE, LabelerScreen::new);
     }
+
+    public static ScoreDiskCache getScoreDiskCache() {
+        return SCORE_DISK_CACHE;
+    }
+
+    public static ScoreDecoder getScoreDecoder() {
+        return SCORE_DECODER;
+    }
 }
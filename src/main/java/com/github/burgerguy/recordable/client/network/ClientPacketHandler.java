@@ -1,16 +1,23 @@
 package com.github.burgerguy.recordable.client.network;
 
+import com.github.burgerguy.recordable.client.RecordableClient;
 import com.github.burgerguy.recordable.client.score.FutureScore;
-import com.github.burgerguy.recordable.client.score.Score;
+import com.github.burgerguy.recordable.client.score.ScoreStream;
 import com.github.burgerguy.recordable.client.score.cache.ScoreCacheContainer;
+import com.github.burgerguy.recordable.client.score.cache.ScoreDiskCache;
 import com.github.burgerguy.recordable.client.score.play.BlockMonoScorePlayer;
 import com.github.burgerguy.recordable.client.score.play.ScorePlayerRegistry;
 import com.github.burgerguy.recordable.client.score.play.ScorePlayerRegistryContainer;
+import com.github.burgerguy.recordable.server.database.ContentHash;
+import com.github.burgerguy.recordable.server.network.ScoreSender;
 import com.github.burgerguy.recordable.shared.Recordable;
 import com.github.burgerguy.recordable.shared.score.PlayerConstants;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 import org.quiltmc.qsl.networking.api.PacketByteBufs;
 import org.quiltmc.qsl.networking.api.PacketSender;
+import org.quiltmc.qsl.networking.api.client.ClientPlayNetworking;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientPacketListener;
 import net.minecraft.core.BlockPos;
@@ -21,22 +28,11 @@ public class ClientPacketHandler {
     public static void receivePlayScoreInstancePosPacket(Minecraft client, ClientPacketListener handler, FriendlyByteBuf buffer, PacketSender responseSender) {
         try {
             long scoreId = buffer.readLong();
-            short currentTick = buffer.readShort();
+            int currentTick = buffer.readInt();
             int playId = buffer.readInt();
             BlockPos blockPos = BlockPos.of(buffer.readLong());
 
-            // if we got the packet, we have a connection, so it will never be null
-            @SuppressWarnings("ConstantConditions")
-            Long2ObjectMap<FutureScore> scoreCache = ((ScoreCacheContainer) client.getConnection()).getScoreCache();
-            FutureScore score = scoreCache.computeIfAbsent(scoreId, unused -> new FutureScore());
-
-            if (score.request()) {
-                // hasn't been previously requested
-                FriendlyByteBuf newPacketBuffer = PacketByteBufs.create();
-                newPacketBuffer.resetWriterIndex();
-                newPacketBuffer.writeLong(scoreId);
-                responseSender.sendPacket(Recordable.REQUEST_SCORE_ID, newPacketBuffer);
-            }
+            FutureScore score = requestScore(client, scoreId);
 
             client.execute(() -> {
                 ScorePlayerRegistry scorePlayerRegistry = ((ScorePlayerRegistryContainer) client.getConnection()).getScorePlayerRegistry();
@@ -47,6 +43,50 @@ public class ClientPacketHandler {
         }
     }
 
+    /**
+     * Gets the score from the cache, and requests it from the server if it hasn't been requested already.
+     * Can be called from any thread.
+     */
+    public static FutureScore requestScore(Minecraft client, long scoreId) {
+        ClientPacketListener connection = client.getConnection();
+        if (connection == null) return new FutureScore();
+
+        FutureScore score = ((ScoreCacheContainer) connection).getScoreCache().get(scoreId);
+
+        if (score.request()) {
+            // hasn't been previously requested, or the last request failed
+            long scoreDatabaseId = ((ScoreCacheContainer) connection).getScoreDatabaseId();
+            if (scoreDatabaseId != ScoreDiskCache.NO_DATABASE_ID) {
+                // the server checks the cached copy is still the same score before it's used
+                RecordableClient.getScoreDiskCache().readContentHash(scoreDatabaseId, scoreId, cachedHash -> {
+                    // the player could have left while the disk was being read
+                    if (client.getConnection() == connection) sendScoreRequest(scoreId, cachedHash);
+                });
+            } else {
+                sendScoreRequest(scoreId, null);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * @param cachedHash the content hash of the copy in the disk cache, if there is one
+     */
+    private static void sendScoreRequest(long scoreId, @Nullable byte[] cachedHash) {
+        FriendlyByteBuf newPacketBuffer = PacketByteBufs.create();
+        newPacketBuffer.resetWriterIndex();
+        newPacketBuffer.writeLong(scoreId);
+        newPacketBuffer.writeByteArray(cachedHash == null ? new byte[0] : cachedHash);
+        ClientPlayNetworking.send(Recordable.REQUEST_SCORE_ID, newPacketBuffer);
+    }
+
+    public static void receiveScoreDatabasePacket(Minecraft client, ClientPacketListener handler, FriendlyByteBuf buffer, PacketSender responseSender) {
+        long scoreDatabaseId = buffer.readLong();
+        // the scores are already on this disk
+        if (client.isLocalServer()) return;
+        ((ScoreCacheContainer) handler).setScoreDatabaseId(scoreDatabaseId);
+    }
+
     public static void receiveStopScoreInstancePacket(Minecraft client, ClientPacketListener handler, FriendlyByteBuf buffer, PacketSender responseSender) {
         try {
             int playId = buffer.readInt();
@@ -78,22 +118,88 @@ public class ClientPacketHandler {
         }
     }
 
+    /**
+     * Scores are sent in chunks, see {@link com.github.burgerguy.recordable.server.network.ScoreSender} for the format.
+     * Every chunk is acknowledged, even if it can't be used, so the server can keep sending.
+     */
     public static void receiveSentScorePacket(Minecraft client, ClientPacketListener handler, FriendlyByteBuf buffer, PacketSender responseSender) {
+        long scoreId = buffer.readLong();
+        int sequence = buffer.readInt();
+        FutureScore futureScore = getCachedScore(handler, scoreId);
         try {
-            long scoreId = buffer.readLong();
-
-            if (buffer.isReadable()) {
-                Score score = Score.fromBuffer(buffer);
+            if (futureScore == null) throw new IllegalStateException("Got score " + scoreId + ", which wasn't requested");
+            if (sequence == 0) {
+                int sizeBytes = buffer.readInt();
+                if (sizeBytes == ScoreSender.MISSING_SIZE) {
+                    throw new IllegalArgumentException("Requested score of id " + scoreId + ", but score did not exist on the server.");
+                }
+                if (sizeBytes == ScoreSender.UNCHANGED_SIZE) {
+                    // nothing else is sent, the copy on disk is the right one
+                    long scoreDatabaseId = ((ScoreCacheContainer) handler).getScoreDatabaseId();
+                    RecordableClient.getScoreDiskCache().load(scoreDatabaseId, scoreId, futureScore, () -> {
+                        // it was evicted since the request was sent
+                        if (client.getConnection() == handler) sendScoreRequest(scoreId, null);
+                    });
+                    return;
+                }
+                int formatVersion = buffer.readUnsignedByte();
+                byte[] contentHash = buffer.readByteArray(ContentHash.SIZE_BYTES);
+                futureScore.setStream(new ScoreStream(RecordableClient.getScoreDecoder(), scoreId, futureScore, formatVersion, contentHash, sizeBytes));
+            }
 
-                // if we got the packet, we have a connection, so it will never be null
-                @SuppressWarnings("ConstantConditions")
-                Long2ObjectMap<FutureScore> scoreCache = ((ScoreCacheContainer) client.getConnection()).getScoreCache();
-                scoreCache.computeIfAbsent(scoreId, unused -> new FutureScore()).setScore(score);
-            } else {
-                throw new IllegalArgumentException("Requested score of id " + scoreId + ", but score did not exist on the server.");
+            ScoreStream stream = futureScore.getStream();
+            if (stream == null) throw new IllegalStateException("Got chunk " + sequence + " of score " + scoreId + ", which isn't being received");
+            if (stream.receive(sequence, buffer.nioBuffer())) {
+                futureScore.setStream(null);
+                long scoreDatabaseId = ((ScoreCacheContainer) handler).getScoreDatabaseId();
+                // a score that couldn't be decoded shouldn't be loaded again later
+                if (scoreDatabaseId != ScoreDiskCache.NO_DATABASE_ID && !futureScore.isFailed()) {
+                    RecordableClient.getScoreDiskCache().storeScore(scoreDatabaseId, scoreId, stream.getContentHash(), stream.getFormatVersion(), stream.getData());
+                }
             }
         } catch (Exception e) {
+            // the rest of the score can't be used either. chunks left over from a transfer which already failed
+            // don't fail the score again, it could have been requested again since.
+            if (futureScore != null && (sequence == 0 || futureScore.getStream() != null)) {
+                futureScore.setStream(null);
+                futureScore.setFailed();
+            }
             Recordable.LOGGER.warn("Error processing score data packet", e);
+        } finally {
+            FriendlyByteBuf ackBuffer = PacketByteBufs.create();
+            ackBuffer.writeLong(scoreId);
+            ackBuffer.writeInt(sequence);
+            responseSender.sendPacket(Recordable.ACK_SCORE_CHUNK_ID, ackBuffer);
+        }
+    }
+
+    public static void receiveSentScoreManifestPacket(Minecraft client, ClientPacketListener handler, FriendlyByteBuf buffer, PacketSender responseSender) {
+        try {
+            long scoreId = buffer.readLong();
+            byte[] contentHash = buffer.readByteArray(ContentHash.SIZE_BYTES);
+            ByteBuffer manifestBuffer = buffer.nioBuffer();
+            ScoreManifest scoreManifest = ScoreManifest.read(manifestBuffer.duplicate());
+            FutureScore futureScore = getCachedScore(handler, scoreId);
+            if (futureScore == null) throw new IllegalStateException("Got manifest for score " + scoreId + ", which wasn't requested");
+            futureScore.setManifest(scoreManifest);
+
+            long scoreDatabaseId = ((ScoreCacheContainer) handler).getScoreDatabaseId();
+            if (scoreDatabaseId != ScoreDiskCache.NO_DATABASE_ID) {
+                // the packet's buffer is released once this returns
+                ByteBuffer manifestCopy = ByteBuffer.allocate(manifestBuffer.remaining()).put(manifestBuffer).flip();
+                RecordableClient.getScoreDiskCache().storeManifest(scoreDatabaseId, scoreId, contentHash, manifestCopy);
+            }
+        } catch (Exception e) {
+            Recordable.LOGGER.warn("Error processing score manifest packet", e);
         }
     }
+
+    /**
+     * Scores are never evicted while they're arriving, so anything the server sends should still be there, unless
+     * it failed.
+     */
+    @Nullable
+    private static FutureScore getCachedScore(ClientPacketListener handler, long scoreId) {
+        return ((ScoreCacheContainer) handler).getScoreCache().getIfPresent(scoreId);
+    }
 }
@@ -1,37 +1,145 @@
 package com.github.burgerguy.recordable.client.score;
 
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 public class FutureScore {
+    /**
+     * Roughly what an empty future score costs.
+     */
+    private static final int BASE_SIZE_BYTES = 96;
 
     private final AtomicBoolean requested;
     private final AtomicReference<Score> scoreReference;
+    private final AtomicReference<ScoreManifest> manifestReference;
+    private volatile boolean complete;
+    private volatile boolean failed;
+    private final AtomicInteger pins;
+    /**
+     * Worked out when the score is set, so the cache doesn't have to go through every group.
+     */
+    private volatile long scoreSizeBytes;
+    /**
+     * Only used by the network thread.
+     */
+    @Nullable
+    private ScoreStream stream;
 
     public FutureScore() {
         this.requested = new AtomicBoolean(false);
         this.scoreReference = new AtomicReference<>(null);
+        this.manifestReference = new AtomicReference<>(null);
+        this.pins = new AtomicInteger();
     }
 
     /**
-     * If the score hadn't already been requested, it becomes
-     * requested after this is called.
+     * If the score hadn't already been requested, or its last
+     * request failed, it becomes requested after this is called.
      *
      * @return if the score needs to be requested
      */
     public boolean request() {
-        return !this.requested.getAndSet(true);
+        if (this.requested.getAndSet(true)) return false;
+        this.failed = false;
+        return true;
+    }
+
+    /**
+     * Called when the score can't be received, so it can be
+     * evicted, and so the next request sends it again.
+     */
+    public void setFailed() {
+        this.failed = true;
+        this.requested.set(false);
+    }
+
+    public boolean isFailed() {
+        return this.failed;
     }
 
     public void setScore(Score score) {
+        this.setScore(score, true);
+    }
+
+    /**
+     * Scores which are still arriving are set more than once,
+     * with more of the score each time.
+     */
+    public void setScore(Score score, boolean complete) {
+        this.scoreSizeBytes = score.getSizeBytes();
         this.scoreReference.lazySet(score);
+        if (complete) this.complete = true;
     }
 
     /**
      * Returns null if the score hasn't been requested, or if
-     * the request hasn't finished.
+     * none of it has arrived. The score can be missing groups
+     * at the end until it's complete.
      */
     public Score getScoreOrNull() {
         return this.scoreReference.get();
     }
+
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * If the score has all arrived, either as a score or as a manifest,
+     * or if it failed and nothing more of it will arrive.
+     */
+    public boolean isFinished() {
+        return this.complete || this.failed || this.manifestReference.get() != null;
+    }
+
+    /**
+     * Keeps the score from being evicted from the cache until it's unpinned as many times as it's been pinned.
+     */
+    public void pin() {
+        this.pins.incrementAndGet();
+    }
+
+    public void unpin() {
+        this.pins.decrementAndGet();
+    }
+
+    public boolean isPinned() {
+        return this.pins.get() > 0;
+    }
+
+    /**
+     * Roughly how much memory the score and manifest take up.
+     */
+    public long getSizeBytes() {
+        ScoreManifest manifest = this.manifestReference.get();
+        return BASE_SIZE_BYTES + this.scoreSizeBytes + (manifest == null ? 0 : manifest.getSizeBytes());
+    }
+
+    @Nullable
+    public ScoreStream getStream() {
+        return this.stream;
+    }
+
+    public void setStream(@Nullable ScoreStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Long recordings get a manifest instead of a score, and
+     * each of their segments is requested as its own score.
+     */
+    public void setManifest(ScoreManifest manifest) {
+        this.manifestReference.lazySet(manifest);
+    }
+
+    /**
+     * Returns null if the request hasn't finished, or if the
+     * score isn't split into segments.
+     */
+    public ScoreManifest getManifestOrNull() {
+        return this.manifestReference.get();
+    }
 }
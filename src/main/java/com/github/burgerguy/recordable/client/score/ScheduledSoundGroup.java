@@ -1,3 +0,0 @@
-package com.github.burgerguy.recordable.client.score;
-
-public record ScheduledSoundGroup(int tick, PartialSoundInstance[] sounds) {}
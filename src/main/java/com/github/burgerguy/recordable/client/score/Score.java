@@ -1,41 +1,277 @@
 package com.github.burgerguy.recordable.client.score;
 
 import com.github.burgerguy.recordable.shared.score.ScoreConstants;
+import com.github.burgerguy.recordable.shared.score.ScoreFormat;
+import com.github.burgerguy.recordable.shared.score.ScoreVisitor;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import net.minecraft.core.Registry;
-import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.sounds.SoundEvent;
 
-public record Score(ScheduledSoundGroup[] orderedScheduledSoundGroups, int finalTick) {
+/**
+ * A decoded score, stored as parallel arrays rather than an object per group and sound. Groups are the ticks with
+ * sounds, in order, and each group's sounds are the ones from its start up to the next group's start. Sound events
+ * are resolved once per palette entry, and each sound only keeps its palette index.
+ * <p>
+ * Scores which are still arriving can share their arrays with the builder, so only the groups and sounds up to the
+ * counts are part of the score.
+ */
+public final class Score {
+    // rough sizes, with compressed oops
+    private static final int BASE_SIZE_BYTES = 112;
+    private static final int ARRAY_SIZE_BYTES = 16;
+    private static final int GROUP_SIZE_BYTES = Integer.BYTES * 2;
+    private static final int SOUND_SIZE_BYTES = Integer.BYTES + Float.BYTES * 5;
+
+    private final SoundEvent[] palette;
+    private final int[] groupTicks;
+    private final int[] groupStarts;
+    private final int groupCount;
+    private final int[] soundPaletteIndices;
+    private final float[] relXs;
+    private final float[] relYs;
+    private final float[] relZs;
+    private final float[] volumes;
+    private final float[] pitches;
+    private final int soundCount;
+    private final int finalTick;
+
+    private Score(SoundEvent[] palette, int[] groupTicks, int[] groupStarts, int groupCount, int[] soundPaletteIndices, float[] relXs, float[] relYs, float[] relZs, float[] volumes, float[] pitches, int soundCount, int finalTick) {
+        this.palette = palette;
+        this.groupTicks = groupTicks;
+        this.groupStarts = groupStarts;
+        this.groupCount = groupCount;
+        this.soundPaletteIndices = soundPaletteIndices;
+        this.relXs = relXs;
+        this.relYs = relYs;
+        this.relZs = relZs;
+        this.volumes = volumes;
+        this.pitches = pitches;
+        this.soundCount = soundCount;
+        this.finalTick = finalTick;
+    }
+
+    /**
+     * See {@link ScoreFormat} for the buffer formats.
+     */
+    public static Score fromBuffer(ByteBuffer buffer, int formatVersion) {
+        Builder builder = new Builder();
+        ScoreFormat.read(buffer, formatVersion, builder);
+        return builder.build();
+    }
+
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    public int getGroupTick(int group) {
+        return this.groupTicks[group];
+    }
+
+    /**
+     * The index of the group's first sound.
+     */
+    public int getGroupStart(int group) {
+        return this.groupStarts[group];
+    }
+
+    /**
+     * The index after the group's last sound.
+     */
+    public int getGroupEnd(int group) {
+        return group + 1 < this.groupCount ? this.groupStarts[group + 1] : this.soundCount;
+    }
+
+    public SoundEvent getSoundEvent(int sound) {
+        return this.palette[this.soundPaletteIndices[sound]];
+    }
+
+    public float getRelX(int sound) {
+        return this.relXs[sound];
+    }
+
+    public float getRelY(int sound) {
+        return this.relYs[sound];
+    }
+
+    public float getRelZ(int sound) {
+        return this.relZs[sound];
+    }
+
+    public float getVolume(int sound) {
+        return this.volumes[sound];
+    }
+
+    public float getPitch(int sound) {
+        return this.pitches[sound];
+    }
+
+    public int getFinalTick() {
+        return this.finalTick;
+    }
+
+    /**
+     * Roughly how much memory the score takes up. Arrays shared with a builder are counted in full.
+     */
+    public long getSizeBytes() {
+        return BASE_SIZE_BYTES
+               + ARRAY_SIZE_BYTES * 9L
+               + (long) this.palette.length * Integer.BYTES
+               + (long) this.groupTicks.length * GROUP_SIZE_BYTES
+               + (long) this.soundPaletteIndices.length * SOUND_SIZE_BYTES;
+    }
 
     /**
-     * See ScoreRecorder docs for buffer format.
+     * Fills the arrays in a single pass. Formats with a header say exactly how many groups and sounds there are, so
+     * the arrays are made the right size up front. Otherwise, they grow as they're filled and are trimmed once the
+     * score is built.
      */
-    public static Score fromBuffer(FriendlyByteBuf buffer) {
-        int currentTick = 0;
-        ScheduledSoundGroup[] soundGroups = new ScheduledSoundGroup[ScoreConstants.MAX_TICKS];
-        short currentSoundGroup = 0;
-
-        while (buffer.isReadable()) {
-            currentTick = Short.toUnsignedInt(buffer.readShort());
-            int soundInstancesCount = Byte.toUnsignedInt(buffer.readByte());
-            if (soundInstancesCount == 0) break;
-
-            PartialSoundInstance[] soundInstancesArray = new PartialSoundInstance[soundInstancesCount];
-            for (int i = 0; i < soundInstancesCount; i++) {
-                SoundEvent soundEvent = Registry.SOUND_EVENT.byId(buffer.readInt());
-                float relX = buffer.readFloat();
-                float relY = buffer.readFloat();
-                float relZ = buffer.readFloat();
-                float volume = buffer.readFloat();
-                float pitch = buffer.readFloat();
-                soundInstancesArray[i] = new PartialSoundInstance(soundEvent, relX, relY, relZ, volume, pitch);
+    public static class Builder implements ScoreVisitor {
+        private static final int INITIAL_PALETTE_CAPACITY = 8;
+        private static final int INITIAL_GROUP_CAPACITY = 64;
+        private static final int INITIAL_SOUND_CAPACITY = 256;
+        /**
+         * The most a header is trusted with before anything's been read, so a bad header can't take all the memory.
+         * Scores with more than this still work, their arrays just grow.
+         */
+        private static final int MAX_PREALLOCATED_GROUPS = ScoreConstants.MAX_TICKS + 1;
+        private static final int MAX_PREALLOCATED_SOUNDS = ScoreConstants.MAX_RECORD_SIZE_BYTES / ScoreConstants.SOUND_SIZE_BYTES;
+
+        private SoundEvent[] palette = new SoundEvent[INITIAL_PALETTE_CAPACITY];
+        private int paletteSize;
+        private int[] groupTicks;
+        private int[] groupStarts;
+        private int groupCount;
+        private int[] soundPaletteIndices;
+        private float[] relXs;
+        private float[] relYs;
+        private float[] relZs;
+        private float[] volumes;
+        private float[] pitches;
+        private int soundCount;
+        private int finalTick;
+        private int snapshotGroupCount;
+
+        @Override
+        public void visitHeader(int tickGroupCount, int soundCount, int finalTick) {
+            this.allocateGroups(Math.min(Math.max(tickGroupCount, 0), MAX_PREALLOCATED_GROUPS));
+            this.allocateSounds(Math.min(Math.max(soundCount, 0), MAX_PREALLOCATED_SOUNDS));
+            this.finalTick = finalTick;
+        }
+
+        /**
+         * Sounds that aren't registered on the client still get an event, they just won't play anything.
+         */
+        @Override
+        public void visitPaletteEntry(int paletteIndex, ResourceLocation soundLocation) {
+            if (paletteIndex >= this.palette.length) {
+                this.palette = Arrays.copyOf(this.palette, Math.max(paletteIndex + 1, this.palette.length * 2));
+            }
+            this.palette[paletteIndex] = Registry.SOUND_EVENT.getOptional(soundLocation).orElseGet(() -> new SoundEvent(soundLocation));
+            this.paletteSize = Math.max(this.paletteSize, paletteIndex + 1);
+        }
+
+        @Override
+        public void visitTickGroup(int tick, int soundCount) {
+            if (this.groupTicks == null) {
+                this.allocateGroups(INITIAL_GROUP_CAPACITY);
+            } else if (this.groupCount == this.groupTicks.length) {
+                this.allocateGroups(Math.max(this.groupTicks.length * 2, INITIAL_GROUP_CAPACITY));
+            }
+            if (this.soundPaletteIndices == null) {
+                this.allocateSounds(Math.max(soundCount, INITIAL_SOUND_CAPACITY));
+            } else if (this.soundCount + soundCount > this.soundPaletteIndices.length) {
+                this.allocateSounds(Math.max(this.soundPaletteIndices.length * 2, this.soundCount + soundCount));
             }
-            soundGroups[currentSoundGroup] = new ScheduledSoundGroup(currentTick, soundInstancesArray);
+            this.groupTicks[this.groupCount] = tick;
+            this.groupStarts[this.groupCount] = this.soundCount;
+            this.groupCount++;
+        }
+
+        @Override
+        public void visitSound(int paletteIndex, float relX, float relY, float relZ, float volume, float pitch) {
+            int sound = this.soundCount++;
+            this.soundPaletteIndices[sound] = paletteIndex;
+            this.relXs[sound] = relX;
+            this.relYs[sound] = relY;
+            this.relZs[sound] = relZ;
+            this.volumes[sound] = volume;
+            this.pitches[sound] = pitch;
+        }
+
+        @Override
+        public void visitEnd(int finalTick) {
+            this.finalTick = finalTick;
+        }
+
+        /**
+         * Copies what's been filled so far into new arrays of the given size. Snapshots keep the old arrays, so
+         * nothing they can see is ever written to again.
+         */
+        private void allocateGroups(int capacity) {
+            this.groupTicks = this.groupTicks == null ? new int[capacity] : Arrays.copyOf(this.groupTicks, capacity);
+            this.groupStarts = this.groupStarts == null ? new int[capacity] : Arrays.copyOf(this.groupStarts, capacity);
+        }
 
-            currentSoundGroup++;
+        private void allocateSounds(int capacity) {
+            if (this.soundPaletteIndices == null) {
+                this.soundPaletteIndices = new int[capacity];
+                this.relXs = new float[capacity];
+                this.relYs = new float[capacity];
+                this.relZs = new float[capacity];
+                this.volumes = new float[capacity];
+                this.pitches = new float[capacity];
+            } else {
+                this.soundPaletteIndices = Arrays.copyOf(this.soundPaletteIndices, capacity);
+                this.relXs = Arrays.copyOf(this.relXs, capacity);
+                this.relYs = Arrays.copyOf(this.relYs, capacity);
+                this.relZs = Arrays.copyOf(this.relZs, capacity);
+                this.volumes = Arrays.copyOf(this.volumes, capacity);
+                this.pitches = Arrays.copyOf(this.pitches, capacity);
+            }
         }
 
-        return new Score(Arrays.copyOf(soundGroups, currentSoundGroup), currentTick);
+        boolean hasNewGroups() {
+            return this.groupCount != this.snapshotGroupCount;
+        }
+
+        /**
+         * Returns a score with every group that's been read so far, while more are still being read. Nothing is
+         * copied, the score only sees up to the current counts.
+         */
+        Score snapshot() {
+            this.snapshotGroupCount = this.groupCount;
+            return this.createScore();
+        }
+
+        /**
+         * Only copies anything if the arrays had to grow, or the header said there'd be more than there was.
+         */
+        public Score build() {
+            if (this.groupTicks == null || this.groupTicks.length != this.groupCount) this.allocateGroups(this.groupCount);
+            if (this.soundPaletteIndices == null || this.soundPaletteIndices.length != this.soundCount) this.allocateSounds(this.soundCount);
+            if (this.palette.length != this.paletteSize) this.palette = Arrays.copyOf(this.palette, this.paletteSize);
+            return this.createScore();
+        }
+
+        private Score createScore() {
+            if (this.groupTicks == null) this.allocateGroups(0);
+            if (this.soundPaletteIndices == null) this.allocateSounds(0);
+            return new Score(
+                    this.palette,
+                    this.groupTicks,
+                    this.groupStarts,
+                    this.groupCount,
+                    this.soundPaletteIndices,
+                    this.relXs,
+                    this.relYs,
+                    this.relZs,
+                    this.volumes,
+                    this.pitches,
+                    this.soundCount,
+                    this.finalTick
+            );
+        }
     }
 }
@@ -0,0 +1,97 @@
+package com.github.burgerguy.recordable.client.score;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes scores as they arrive, on a small pool of threads, so the network thread only has to copy each chunk. If
+ * the queue is full, the network thread decodes the chunk itself, which slows the server down instead of letting
+ * the queue grow forever.
+ */
+public class ScoreDecoder implements Closeable {
+    public static final String THREADS_KEY = "decode.threads";
+    public static final String MAX_QUEUED_TASKS_KEY = "decode.maxQueuedTasks";
+
+    private static final int DEFAULT_THREADS = 1;
+    private static final int DEFAULT_MAX_QUEUED_TASKS = 64;
+
+    private final ThreadPoolExecutor executor;
+    /**
+     * Also used as the monitor for the statistics.
+     */
+    private final Object statisticsLock;
+    private long scoreCount;
+    private long totalDecodeNanos;
+    private long maxDecodeNanos;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public ScoreDecoder(RecordableConfig config) {
+        int threads = Math.max(config.getInt(THREADS_KEY, DEFAULT_THREADS), 1);
+        int maxQueuedTasks = Math.max(config.getInt(MAX_QUEUED_TASKS_KEY, DEFAULT_MAX_QUEUED_TASKS), 1);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedTasks),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Recordable Score Decoder " + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        this.statisticsLock = new Object();
+    }
+
+    void execute(Runnable task) {
+        this.executor.execute(task);
+    }
+
+    /**
+     * @param decodeNanos how long was spent decoding the score
+     * @param latencyNanos how long it took from the first chunk arriving to the whole score being decoded
+     */
+    void recordDecoded(long scoreId, int sizeBytes, long decodeNanos, long latencyNanos) {
+        synchronized (this.statisticsLock) {
+            this.scoreCount++;
+            this.totalDecodeNanos += decodeNanos;
+            this.maxDecodeNanos = Math.max(this.maxDecodeNanos, decodeNanos);
+            this.totalLatencyNanos += latencyNanos;
+            this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latencyNanos);
+        }
+        if (Recordable.LOGGER.isDebugEnabled()) {
+            Recordable.LOGGER.debug("Decoded score " + scoreId + " (" + sizeBytes + " bytes) in " + TimeUnit.NANOSECONDS.toMicros(decodeNanos) + " us, " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + " ms after it started arriving");
+        }
+    }
+
+    public Statistics getStatistics() {
+        synchronized (this.statisticsLock) {
+            return new Statistics(
+                    this.scoreCount,
+                    this.scoreCount == 0 ? 0 : this.totalDecodeNanos / this.scoreCount,
+                    this.maxDecodeNanos,
+                    this.scoreCount == 0 ? 0 : this.totalLatencyNanos / this.scoreCount,
+                    this.maxLatencyNanos,
+                    this.executor.getQueue().size()
+            );
+        }
+    }
+
+    /**
+     * Drops anything that's still queued. Scores that were being decoded are left incomplete.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    public record Statistics(long scoreCount, long averageDecodeNanos, long maxDecodeNanos, long averageLatencyNanos, long maxLatencyNanos, int queuedTasks) {}
+}
@@ -0,0 +1,136 @@
+package com.github.burgerguy.recordable.client.score;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.score.ScoreFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Puts a score back together from the chunks it's sent in. The network thread only copies each chunk in, and the
+ * score is decoded on the {@link ScoreDecoder}. Scores in a format that can be streamed are given to the
+ * {@link FutureScore} as they're decoded, so they can start playing before the rest of the score is there.
+ * <p>
+ * Only one decode task runs for a stream at a time, and each one decodes everything that's arrived when it runs.
+ */
+public class ScoreStream {
+    /**
+     * Way more than any score the server can send, so a bad size can't take all the memory.
+     */
+    private static final int MAX_SIZE_BYTES = 16 * 1024 * 1024;
+
+    private final ScoreDecoder decoder;
+    private final long scoreId;
+    private final FutureScore futureScore;
+    private final int formatVersion;
+    private final byte[] contentHash;
+    /**
+     * Only written by the network thread. Decode tasks only read up to {@link #receivedBytes}.
+     */
+    private final ByteBuffer received;
+    private final long startNanos;
+    private int nextSequence;
+    private volatile int receivedBytes;
+    private final AtomicBoolean decodeScheduled;
+
+    // only used by decode tasks, which never run at the same time
+    private final Score.Builder builder;
+    private final ScoreFormat.StreamReader streamReader;
+    private long decodeNanos;
+    private boolean failed;
+
+    /**
+     * Created when the first chunk arrives, which holds the total size.
+     */
+    public ScoreStream(ScoreDecoder decoder, long scoreId, FutureScore futureScore, int formatVersion, byte[] contentHash, int sizeBytes) {
+        if (sizeBytes < 0 || sizeBytes > MAX_SIZE_BYTES) throw new IllegalArgumentException("Invalid score size " + sizeBytes);
+        this.decoder = decoder;
+        this.scoreId = scoreId;
+        this.futureScore = futureScore;
+        this.formatVersion = formatVersion;
+        this.contentHash = contentHash;
+        this.received = ByteBuffer.allocate(sizeBytes).order(ByteOrder.BIG_ENDIAN);
+        this.startNanos = System.nanoTime();
+        this.decodeScheduled = new AtomicBoolean();
+        this.builder = new Score.Builder();
+        this.streamReader = ScoreFormat.StreamReader.canStream(formatVersion) ? new ScoreFormat.StreamReader(formatVersion, this.builder) : null;
+    }
+
+    /**
+     * Chunks have to be given in order. The first chunk is sequence 0.
+     *
+     * @return if the whole score has arrived, which doesn't mean it's been decoded yet
+     */
+    public boolean receive(int sequence, ByteBuffer chunk) {
+        if (sequence != this.nextSequence) throw new IllegalArgumentException("Expected chunk " + this.nextSequence + ", got chunk " + sequence);
+        this.nextSequence++;
+        if (chunk.remaining() > this.received.remaining()) throw new IllegalArgumentException("Score is bigger than its size");
+        this.received.put(chunk);
+        // publishes the bytes to the decode task
+        this.receivedBytes = this.received.position();
+
+        boolean complete = !this.received.hasRemaining();
+        // formats that can't be streamed have nothing to decode until they're all there
+        if ((this.streamReader != null || complete) && this.decodeScheduled.compareAndSet(false, true)) {
+            this.decoder.execute(this::decode);
+        }
+        return complete;
+    }
+
+    private void decode() {
+        int decodedBytes;
+        do {
+            decodedBytes = this.receivedBytes;
+            this.decodeAvailable(decodedBytes);
+            this.decodeScheduled.set(false);
+            // anything that arrived before the flag was cleared didn't schedule another task
+        } while (this.receivedBytes != decodedBytes && this.decodeScheduled.compareAndSet(false, true));
+    }
+
+    private void decodeAvailable(int availableBytes) {
+        if (this.failed) return;
+        long startNanos = System.nanoTime();
+        try {
+            ByteBuffer available = ByteBuffer.wrap(this.received.array(), 0, availableBytes);
+            boolean complete = availableBytes == this.received.capacity();
+            Score score = null;
+            if (this.streamReader != null) {
+                // the reader picks up where it left off
+                this.streamReader.read(available);
+                if (complete) {
+                    score = this.builder.build();
+                } else if (this.builder.hasNewGroups()) {
+                    this.futureScore.setScore(this.builder.snapshot(), false);
+                }
+            } else if (complete) {
+                score = Score.fromBuffer(available, this.formatVersion);
+            }
+            this.decodeNanos += System.nanoTime() - startNanos;
+
+            if (score != null) {
+                this.futureScore.setScore(score, true);
+                this.decoder.recordDecoded(this.scoreId, availableBytes, this.decodeNanos, System.nanoTime() - this.startNanos);
+            }
+        } catch (Exception e) {
+            // the rest of the score can't be used either
+            this.failed = true;
+            this.futureScore.setFailed();
+            Recordable.LOGGER.warn("Unable to decode score " + this.scoreId, e);
+        }
+    }
+
+    public int getFormatVersion() {
+        return this.formatVersion;
+    }
+
+    public byte[] getContentHash() {
+        return this.contentHash;
+    }
+
+    /**
+     * The whole score, without copying it. Only valid once it's all arrived.
+     */
+    public ByteBuffer getData() {
+        return ByteBuffer.wrap(this.received.array(), 0, this.received.capacity());
+    }
+}
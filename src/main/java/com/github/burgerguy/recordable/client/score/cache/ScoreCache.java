@@ -0,0 +1,97 @@
+package com.github.burgerguy.recordable.client.score.cache;
+
+import com.github.burgerguy.recordable.client.score.FutureScore;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import javax.annotation.Nullable;
+
+/**
+ * The scores of a connection, bounded by how much memory the decoded scores take up. The least recently used scores
+ * are evicted once they take up too much, except for scores which are pinned by a player, and scores which haven't
+ * fully arrived yet. Scores which failed to arrive can be evicted too. An evicted score is just requested again the
+ * next time it's needed.
+ * <p>
+ * Scores are set from the network and disk cache threads, so their sizes are only added up when the cache is trimmed.
+ */
+public class ScoreCache {
+    public static final String MAX_SIZE_KEY = "cache.memoryMaxSizeBytes";
+
+    private static final long DEFAULT_MAX_SIZE_BYTES = 64 * 1024 * 1024;
+
+    private final long maxSizeBytes;
+    /**
+     * Least recently used first. Also used as the monitor for everything here.
+     */
+    private final Long2ObjectLinkedOpenHashMap<FutureScore> scores;
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ScoreCache(RecordableConfig config) {
+        this.maxSizeBytes = Math.max(config.getLong(MAX_SIZE_KEY, DEFAULT_MAX_SIZE_BYTES), 0);
+        this.scores = new Long2ObjectLinkedOpenHashMap<>();
+    }
+
+    /**
+     * Gets the score, adding an empty one if it isn't cached. Counts as a use of the score.
+     */
+    public FutureScore get(long scoreId) {
+        synchronized (this.scores) {
+            FutureScore futureScore = this.scores.getAndMoveToLast(scoreId);
+            if (futureScore != null) {
+                this.hits++;
+                return futureScore;
+            }
+            this.misses++;
+            futureScore = new FutureScore();
+            this.scores.putAndMoveToLast(scoreId, futureScore);
+            return futureScore;
+        }
+    }
+
+    /**
+     * Gets the score without counting it as a use, or returns null if it isn't cached.
+     */
+    @Nullable
+    public FutureScore getIfPresent(long scoreId) {
+        synchronized (this.scores) {
+            return this.scores.get(scoreId);
+        }
+    }
+
+    /**
+     * Evicts the least recently used scores until everything fits. Should be called every tick.
+     */
+    public void trim() {
+        synchronized (this.scores) {
+            long sizeBytes = 0;
+            for (FutureScore futureScore : this.scores.values()) {
+                sizeBytes += futureScore.getSizeBytes();
+            }
+
+            ObjectIterator<FutureScore> iterator = this.scores.values().iterator();
+            while (sizeBytes > this.maxSizeBytes && iterator.hasNext()) {
+                FutureScore futureScore = iterator.next();
+                // anything that's still arriving would have nowhere to go, failed scores won't arrive
+                if (futureScore.isPinned() || !futureScore.isFinished()) continue;
+                sizeBytes -= futureScore.getSizeBytes();
+                iterator.remove();
+                this.evictions++;
+            }
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    public Statistics getStatistics() {
+        synchronized (this.scores) {
+            return new Statistics(this.scores.size(), this.sizeBytes, this.hits, this.misses, this.evictions);
+        }
+    }
+
+    /**
+     * @param sizeBytes as of the last trim
+     */
+    public record Statistics(int scoreCount, long sizeBytes, long hits, long misses, long evictions) {}
+}
@@ -1,8 +1,13 @@
 package com.github.burgerguy.recordable.client.score.cache;
 
-import com.github.burgerguy.recordable.client.score.FutureScore;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-
 public interface ScoreCacheContainer {
-    Long2ObjectMap<FutureScore> getScoreCache();
+    ScoreCache getScoreCache();
+
+    /**
+     * The ID of the server's score database, or {@link ScoreDiskCache#NO_DATABASE_ID} if scores from this connection
+     * shouldn't be kept on disk.
+     */
+    long getScoreDatabaseId();
+
+    void setScoreDatabaseId(long scoreDatabaseId);
 }
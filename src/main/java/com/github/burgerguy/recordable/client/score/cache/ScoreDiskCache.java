@@ -0,0 +1,288 @@
+package com.github.burgerguy.recordable.client.score.cache;
+
+import com.github.burgerguy.recordable.client.score.FutureScore;
+import com.github.burgerguy.recordable.client.score.Score;
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Keeps scores sent by servers on disk, so they don't have to be sent again the next time the player joins.
+ * <p>
+ * Entries are found by the ID of the server's database and the score ID, but those can point to a different score if
+ * the server's world is rolled back to a backup. Each entry keeps the content hash the server sent with it, which is
+ * sent along with the request, and the entry is only used once the server says the hash still matches. Each entry is
+ * its own file, and the least recently used ones are deleted once the cache gets too big. The last modified time of
+ * each file is when it was last used, so the order survives restarts.
+ * <p>
+ * All file access happens on a single thread, so nothing here ever blocks the render or network threads.
+ * <p>
+ * Entry format:
+ * 1 byte type (0 for a score, 1 for a manifest)
+ * 1 byte content hash length
+ * (length) content hash
+ * score entry:
+ * 1 byte {@link com.github.burgerguy.recordable.shared.score.ScoreFormat} version
+ * (rest) score bytes
+ * manifest entry:
+ * (rest) manifest bytes
+ */
+public class ScoreDiskCache implements Closeable {
+    public static final String MAX_SIZE_KEY = "cache.diskMaxSizeBytes";
+    public static final String DIRECTORY_NAME = "score_cache";
+    /**
+     * Sent before the server has said which database it uses. Servers never use this as an ID.
+     */
+    public static final long NO_DATABASE_ID = 0;
+
+    private static final long DEFAULT_MAX_SIZE_BYTES = 256 * 1024 * 1024;
+    private static final String FILE_EXTENSION = ".score";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final byte SCORE_ENTRY = 0;
+    private static final byte MANIFEST_ENTRY = 1;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final int MAX_CONTENT_HASH_SIZE_BYTES = 64;
+
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final ExecutorService executor;
+    /**
+     * Least recently used first. Only used by the cache thread.
+     */
+    private final Object2LongLinkedOpenHashMap<Path> entrySizes;
+    private long sizeBytes;
+
+    public ScoreDiskCache(Path directory, RecordableConfig config) {
+        this.directory = directory;
+        this.maxSizeBytes = Math.max(config.getLong(MAX_SIZE_KEY, DEFAULT_MAX_SIZE_BYTES), 0);
+        this.entrySizes = new Object2LongLinkedOpenHashMap<>();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Recordable Score Disk Cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // everything else is queued behind this, so nothing is looked up before the index exists
+        this.execute(this::index);
+    }
+
+    private void index() {
+        if (!Files.isDirectory(this.directory)) return;
+
+        record Entry(Path path, long size, FileTime lastModified) {}
+        List<Entry> entries = new ObjectArrayList<>();
+        try (Stream<Path> files = Files.find(this.directory, 2, (path, attributes) -> attributes.isRegularFile())) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                try {
+                    if (path.getFileName().toString().endsWith(TEMP_FILE_EXTENSION)) {
+                        // left over from a write that never finished
+                        Files.delete(path);
+                    } else if (path.getFileName().toString().endsWith(FILE_EXTENSION)) {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                    }
+                } catch (IOException e) {
+                    Recordable.LOGGER.warn("Unable to index cached score " + path, e);
+                }
+            }
+        } catch (IOException e) {
+            Recordable.LOGGER.error("Unable to index score cache at " + this.directory, e);
+            return;
+        }
+
+        entries.sort(Comparator.comparing(Entry::lastModified));
+        for (Entry entry : entries) {
+            this.entrySizes.put(entry.path(), entry.size());
+            this.sizeBytes += entry.size();
+        }
+        this.evict();
+        Recordable.LOGGER.info("Indexed " + this.entrySizes.size() + " cached scores, " + this.sizeBytes + " bytes");
+    }
+
+    /**
+     * Gives the content hash of the cached entry to the consumer on the cache thread, or null if there isn't one.
+     * Only the start of the entry is read.
+     */
+    public void readContentHash(long databaseId, long scoreId, Consumer<byte[]> consumer) {
+        if (!this.execute(() -> {
+            Path path = this.getPath(databaseId, scoreId);
+            byte[] contentHash = null;
+            if (this.entrySizes.containsKey(path)) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer header = ByteBuffer.allocate(2 + MAX_CONTENT_HASH_SIZE_BYTES);
+                    while (header.hasRemaining()) {
+                        // entries can be shorter than the biggest header
+                        if (channel.read(header) == -1) break;
+                    }
+                    header.flip().get();
+                    contentHash = readContentHash(header);
+                } catch (Exception e) {
+                    Recordable.LOGGER.warn("Unable to read cached score " + path + ", requesting it instead", e);
+                    this.delete(path);
+                }
+            }
+            consumer.accept(contentHash);
+        })) {
+            consumer.accept(null);
+        }
+    }
+
+    /**
+     * Fills the future score from the cache if it's there, or runs the given action on the cache thread if it isn't.
+     * Should only be called once the server has said the entry's content hash matches.
+     */
+    public void load(long databaseId, long scoreId, FutureScore futureScore, Runnable onMiss) {
+        if (!this.execute(() -> {
+            Path path = this.getPath(databaseId, scoreId);
+            if (!this.entrySizes.containsKey(path)) {
+                onMiss.run();
+                return;
+            }
+
+            try {
+                ByteBuffer entry = ByteBuffer.wrap(Files.readAllBytes(path));
+                byte type = entry.get();
+                readContentHash(entry);
+                if (type == SCORE_ENTRY) {
+                    int formatVersion = Byte.toUnsignedInt(entry.get());
+                    futureScore.setScore(Score.fromBuffer(entry.slice(), formatVersion), true);
+                } else if (type == MANIFEST_ENTRY) {
+                    futureScore.setManifest(ScoreManifest.read(entry.slice()));
+                } else {
+                    throw new IllegalStateException("Unknown entry type " + type);
+                }
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                this.entrySizes.getAndMoveToLast(path);
+            } catch (Exception e) {
+                Recordable.LOGGER.warn("Unable to read cached score " + path + ", requesting it instead", e);
+                this.delete(path);
+                onMiss.run();
+            }
+        })) {
+            onMiss.run();
+        }
+    }
+
+    /**
+     * The data isn't copied, so it can't be changed after this is called.
+     */
+    public void storeScore(long databaseId, long scoreId, byte[] contentHash, int formatVersion, ByteBuffer data) {
+        ByteBuffer header = createHeader(SCORE_ENTRY, contentHash, 1).put((byte) formatVersion).flip();
+        this.execute(() -> this.write(this.getPath(databaseId, scoreId), header, data));
+    }
+
+    /**
+     * The data isn't copied, so it can't be changed after this is called.
+     */
+    public void storeManifest(long databaseId, long scoreId, byte[] contentHash, ByteBuffer data) {
+        ByteBuffer header = createHeader(MANIFEST_ENTRY, contentHash, 0).flip();
+        this.execute(() -> this.write(this.getPath(databaseId, scoreId), header, data));
+    }
+
+    private static ByteBuffer createHeader(byte type, byte[] contentHash, int extraBytes) {
+        if (contentHash.length > MAX_CONTENT_HASH_SIZE_BYTES) throw new IllegalArgumentException("Content hash is too long");
+        return ByteBuffer.allocate(2 + contentHash.length + extraBytes).put(type).put((byte) contentHash.length).put(contentHash);
+    }
+
+    private static byte[] readContentHash(ByteBuffer entry) {
+        int length = Byte.toUnsignedInt(entry.get());
+        if (length > MAX_CONTENT_HASH_SIZE_BYTES) throw new IllegalStateException("Content hash is too long");
+        byte[] contentHash = new byte[length];
+        entry.get(contentHash);
+        return contentHash;
+    }
+
+    private void write(Path path, ByteBuffer header, ByteBuffer data) {
+        Path tempPath = path.resolveSibling(path.getFileName() + TEMP_FILE_EXTENSION);
+        long size = header.remaining() + data.remaining();
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer[] buffers = { header, data };
+                while (header.hasRemaining() || data.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+            // a crash can't leave a half written entry behind
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Recordable.LOGGER.warn("Unable to cache score " + path, e);
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        this.sizeBytes += size - this.entrySizes.getOrDefault(path, 0);
+        this.entrySizes.putAndMoveToLast(path, size);
+        this.evict();
+    }
+
+    private void evict() {
+        while (this.sizeBytes > this.maxSizeBytes && !this.entrySizes.isEmpty()) {
+            this.delete(this.entrySizes.firstKey());
+        }
+    }
+
+    private void delete(Path path) {
+        if (this.entrySizes.containsKey(path)) {
+            this.sizeBytes -= this.entrySizes.removeLong(path);
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            Recordable.LOGGER.warn("Unable to delete cached score " + path, e);
+        }
+    }
+
+    private Path getPath(long databaseId, long scoreId) {
+        return this.directory.resolve(Long.toHexString(databaseId)).resolve(Long.toHexString(scoreId) + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns false if the cache is closed.
+     */
+    private boolean execute(Runnable task) {
+        try {
+            this.executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finishes every queued write.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Recordable.LOGGER.warn("Score disk cache didn't finish writing in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.burgerguy.recordable.client.score.play;
 
 import com.github.burgerguy.recordable.client.score.FutureScore;
-import com.github.burgerguy.recordable.client.score.PartialSoundInstance;
 import javax.annotation.Nullable;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.sounds.Sound;
@@ -10,6 +9,7 @@ import net.minecraft.client.sounds.SoundManager;
 import net.minecraft.client.sounds.WeighedSoundEvents;
 import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.sounds.SoundEvent;
 import net.minecraft.world.phys.Vec3;
 
 public class BlockStereoScorePlayer extends ScorePlayer {
@@ -18,7 +18,7 @@ public class BlockStereoScorePlayer extends ScorePlayer {
     private final float distanceFactor;
     private final float volumeFactor;
 
-    public BlockStereoScorePlayer(FutureScore futureScore, short startTick, SoundManager soundManager, BlockPos blockPos, float distanceFactor, float volumeFactor) {
+    public BlockStereoScorePlayer(FutureScore futureScore, int startTick, SoundManager soundManager, BlockPos blockPos, float distanceFactor, float volumeFactor) {
         super(futureScore, startTick, soundManager);
         this.blockPos = blockPos;
         this.distanceFactor = distanceFactor;
@@ -27,15 +27,15 @@ public class BlockStereoScorePlayer extends ScorePlayer {
 
     @Override
     @Nullable
-    public SoundInstance createSoundInstance(PartialSoundInstance partialSoundInstance) {
+    public SoundInstance createSoundInstance(SoundEvent soundEvent, float relX, float relY, float relZ, float volume, float pitch) {
         // actually figure out what sound we're gonna play.
         // this can vary depending on randomness because it's not based on a seed.
         // this is fixed in the latest snapshots.
-        ResourceLocation resourceLocation = partialSoundInstance.soundEvent().getLocation();
-        WeighedSoundEvents weighedSoundEvents = this.soundManager.getSoundEvent(resourceLocation);
+        ResourceLocation resourceLocation = soundEvent.getLocation();
+        WeighedSoundEvents weighedSoundEvents = this.soundTemplates.getSoundEvents(soundEvent);
         if (weighedSoundEvents == null) return null;
         Sound sound = weighedSoundEvents.getSound();
-        float initialVolume = partialSoundInstance.volume() * sound.getVolume() * this.volumeFactor;
+        float initialVolume = volume * sound.getVolume() * this.volumeFactor;
 
         // why mc uses linear attenuation instead of exponential clamped is beyond me, but
         // I'm going to replicate it here for accuracy
@@ -54,13 +54,13 @@ public class BlockStereoScorePlayer extends ScorePlayer {
                 sound,
                 resourceLocation,
                 attenuatedVolume,
-                partialSoundInstance.pitch(),
+                pitch,
                 false, // looping
                 0, // delay
                 SoundInstance.Attenuation.LINEAR,
-                partialSoundInstance.relX(),
-                partialSoundInstance.relY(),
-                partialSoundInstance.relZ(),
+                relX,
+                relY,
+                relZ,
                 true // relative
         );
     }
@@ -1,31 +1,31 @@
 package com.github.burgerguy.recordable.client.score.play;
 
 import com.github.burgerguy.recordable.client.score.FutureScore;
-import com.github.burgerguy.recordable.client.score.PartialSoundInstance;
 import net.minecraft.client.resources.sounds.SimpleSoundInstance;
 import net.minecraft.client.resources.sounds.SoundInstance;
 import net.minecraft.client.sounds.SoundManager;
+import net.minecraft.sounds.SoundEvent;
 import net.minecraft.sounds.SoundSource;
 
 public class RelativeScorePlayer extends ScorePlayer {
 
-    public RelativeScorePlayer(FutureScore score, short startTick, SoundManager soundManager) {
+    public RelativeScorePlayer(FutureScore score, int startTick, SoundManager soundManager) {
         super(score, startTick, soundManager);
     }
 
     @Override
-    public SoundInstance createSoundInstance(PartialSoundInstance partialSoundInstance) {
+    public SoundInstance createSoundInstance(SoundEvent soundEvent, float relX, float relY, float relZ, float volume, float pitch) {
         return new SimpleSoundInstance(
-                partialSoundInstance.soundEvent().getLocation(),
+                soundEvent.getLocation(),
                 SoundSource.RECORDS,
-                partialSoundInstance.volume(),
-                partialSoundInstance.pitch(),
+                volume,
+                pitch,
                 false, // looping
                 0, // delay
                 SoundInstance.Attenuation.LINEAR,
-                partialSoundInstance.relX(),
-                partialSoundInstance.relY(),
-                partialSoundInstance.relZ(),
+                relX,
+                relY,
+                relZ,
                 true // relative
         );
     }
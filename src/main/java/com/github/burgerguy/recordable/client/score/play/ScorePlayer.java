@@ -1,58 +1,143 @@
 package com.github.burgerguy.recordable.client.score.play;
 
+import com.github.burgerguy.recordable.client.network.ClientPacketHandler;
 import com.github.burgerguy.recordable.client.score.FutureScore;
-import com.github.burgerguy.recordable.client.score.PartialSoundInstance;
-import com.github.burgerguy.recordable.client.score.ScheduledSoundGroup;
 import com.github.burgerguy.recordable.client.score.Score;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
 import javax.annotation.Nullable;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.sounds.SoundInstance;
 import net.minecraft.client.sounds.SoundManager;
+import net.minecraft.sounds.SoundEvent;
 
 public abstract class ScorePlayer {
+    /**
+     * How long before the next segment of a long recording starts that it's requested, so it's there in time.
+     */
+    private static final int SEGMENT_PREFETCH_TICKS = 20 * 30;
+
     private final FutureScore futureScore;
     protected final SoundManager soundManager;
+    protected final SoundTemplateCache soundTemplates;
 
+    /**
+     * From the start of the whole recording, even if it's split into segments.
+     */
     private int currentTick;
-    private int arrayIdx;
+    private int groupIdx;
+    private int segmentIdx = -1;
+    @Nullable
+    private FutureScore segmentScore;
+    private int prefetchedSegmentIdx = -1;
 
     protected boolean paused;
     protected boolean done;
 
-    public ScorePlayer(FutureScore futureScore, short startTick, SoundManager soundManager) {
+    /**
+     * The scores are pinned in the cache until the player stops.
+     */
+    public ScorePlayer(FutureScore futureScore, int startTick, SoundManager soundManager) {
         this.futureScore = futureScore;
+        this.futureScore.pin();
         this.soundManager = soundManager;
+        this.soundTemplates = new SoundTemplateCache(soundManager);
         this.currentTick = startTick;
     }
 
     public void tick() {
         if (this.isDone()) throw new IllegalStateException("Score player ticked after done");
 
+        ScoreManifest manifest = this.futureScore.getManifestOrNull();
+        if (manifest != null) {
+            this.tickSegmented(manifest);
+            return;
+        }
+
         Score score = this.futureScore.getScoreOrNull();
 
-        if (score != null && this.currentTick > score.finalTick()) {
+        if (score != null && this.currentTick > score.getFinalTick()) {
             this.stop();
             return;
         }
 
         if (this.isPaused()) return;
 
-        if (score != null && this.arrayIdx < score.orderedScheduledSoundGroups().length) {
-            ScheduledSoundGroup scheduledSoundGroup = score.orderedScheduledSoundGroups()[this.arrayIdx];
-            if (this.currentTick == scheduledSoundGroup.tick()) {
-                for (PartialSoundInstance partialSoundInstance : scheduledSoundGroup.sounds()) {
-                    SoundInstance soundInstance = this.createSoundInstance(partialSoundInstance);
-                    if (soundInstance != null) {
-                        this.soundManager.play(soundInstance);
-                    }
+        if (score != null) {
+            this.playSoundGroups(score, this.currentTick);
+        }
+        this.currentTick++;
+    }
+
+    private void tickSegmented(ScoreManifest manifest) {
+        if (this.currentTick > manifest.finalTick()) {
+            this.stop();
+            return;
+        }
+
+        if (this.isPaused()) return;
+
+        int segmentIdx = manifest.getSegmentIndex(this.currentTick);
+        if (segmentIdx != this.segmentIdx) {
+            // a segment that filled up partway through a tick has the rest of that tick in the next one
+            if (this.segmentScore != null && segmentIdx == this.segmentIdx + 1) {
+                Score previousScore = this.segmentScore.getScoreOrNull();
+                if (previousScore != null) {
+                    this.playSoundGroups(previousScore, this.currentTick - manifest.startTicks()[this.segmentIdx]);
                 }
-                this.arrayIdx++;
             }
+            this.segmentIdx = segmentIdx;
+            if (this.segmentScore != null) this.segmentScore.unpin();
+            this.segmentScore = ClientPacketHandler.requestScore(Minecraft.getInstance(), manifest.segmentIds()[segmentIdx]);
+            this.segmentScore.pin();
+            this.groupIdx = 0;
+        }
+
+        int nextSegmentIdx = segmentIdx + 1;
+        if (nextSegmentIdx < manifest.getSegmentCount()
+            && nextSegmentIdx != this.prefetchedSegmentIdx
+            && this.currentTick >= manifest.startTicks()[nextSegmentIdx] - SEGMENT_PREFETCH_TICKS) {
+            ClientPacketHandler.requestScore(Minecraft.getInstance(), manifest.segmentIds()[nextSegmentIdx]);
+            this.prefetchedSegmentIdx = nextSegmentIdx;
+        }
+
+        Score score = this.segmentScore.getScoreOrNull();
+        if (score != null) {
+            this.playSoundGroups(score, this.currentTick - manifest.startTicks()[segmentIdx]);
         }
         this.currentTick++;
     }
 
+    /**
+     * Plays the group for the given tick of the score, if there is one.
+     */
+    private void playSoundGroups(Score score, int scoreTick) {
+        int groupCount = score.getGroupCount();
+        // anything before the current tick was missed, which happens when the score arrives late
+        while (this.groupIdx < groupCount && score.getGroupTick(this.groupIdx) < scoreTick) {
+            this.groupIdx++;
+        }
+
+        if (this.groupIdx < groupCount && score.getGroupTick(this.groupIdx) == scoreTick) {
+            int groupEnd = score.getGroupEnd(this.groupIdx);
+            for (int sound = score.getGroupStart(this.groupIdx); sound < groupEnd; sound++) {
+                SoundInstance soundInstance = this.createSoundInstance(
+                        score.getSoundEvent(sound),
+                        score.getRelX(sound),
+                        score.getRelY(sound),
+                        score.getRelZ(sound),
+                        score.getVolume(sound),
+                        score.getPitch(sound)
+                );
+                if (soundInstance != null) {
+                    this.soundManager.play(soundInstance);
+                }
+            }
+            this.groupIdx++;
+        }
+    }
+
     @Nullable
-    public abstract SoundInstance createSoundInstance(PartialSoundInstance partialSoundInstance);
+    public abstract SoundInstance createSoundInstance(SoundEvent soundEvent, float relX, float relY, float relZ, float volume, float pitch);
 
     public void setPaused(boolean paused) {
         this.paused = paused;
@@ -63,7 +148,13 @@ public abstract class ScorePlayer {
     }
 
     public void stop() {
+        if (this.done) return;
         this.done = true;
+        this.futureScore.unpin();
+        if (this.segmentScore != null) {
+            this.segmentScore.unpin();
+            this.segmentScore = null;
+        }
     }
 
     public boolean isDone() {
@@ -12,7 +12,8 @@ public class ScorePlayerRegistry {
     }
 
     public void play(int playId, ScorePlayer scorePlayer) {
-        this.playIdToPlayerMap.put(playId, scorePlayer);
+        ScorePlayer previousPlayer = this.playIdToPlayerMap.put(playId, scorePlayer);
+        if (previousPlayer != null) previousPlayer.stop();
     }
 
     public void setPaused(int playId, boolean paused) {
@@ -0,0 +1,68 @@
+package com.github.burgerguy.recordable.client.score.play;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import javax.annotation.Nullable;
+import net.minecraft.client.resources.sounds.Sound;
+import net.minecraft.client.sounds.SoundManager;
+import net.minecraft.client.sounds.WeighedSoundEvents;
+import net.minecraft.sounds.SoundEvent;
+
+/**
+ * Remembers what a score player has already resolved, so playing a note doesn't have to look up its sound events or
+ * build a new {@link Sound} every time. Sounds are immutable, so the same one can be given to any number of sound
+ * instances. Only used on the client thread.
+ * <p>
+ * Each player has its own cache, so nothing is kept after it stops, and a resource reload only affects players
+ * which were already playing.
+ */
+public class SoundTemplateCache {
+    private final SoundManager soundManager;
+    /**
+     * Null values are cached too, for sounds that don't exist on the client.
+     */
+    private final Reference2ObjectMap<SoundEvent, WeighedSoundEvents> soundEvents;
+    private final Reference2ObjectMap<Sound, Int2ObjectMap<Sound>> attenuatedSounds;
+
+    public SoundTemplateCache(SoundManager soundManager) {
+        this.soundManager = soundManager;
+        this.soundEvents = new Reference2ObjectOpenHashMap<>();
+        this.attenuatedSounds = new Reference2ObjectOpenHashMap<>();
+    }
+
+    @Nullable
+    public WeighedSoundEvents getSoundEvents(SoundEvent soundEvent) {
+        WeighedSoundEvents weighedSoundEvents = this.soundEvents.get(soundEvent);
+        if (weighedSoundEvents == null && !this.soundEvents.containsKey(soundEvent)) {
+            weighedSoundEvents = this.soundManager.getSoundEvent(soundEvent.getLocation());
+            this.soundEvents.put(soundEvent, weighedSoundEvents);
+        }
+        return weighedSoundEvents;
+    }
+
+    /**
+     * Returns a copy of the sound with the given attenuation distance, which is made the first time it's asked for.
+     * Attenuation distances are whole blocks, so there's only ever a handful of them per sound.
+     */
+    public Sound getAttenuated(Sound sound, int attenuationDistance) {
+        if (sound.getAttenuationDistance() == attenuationDistance) return sound;
+        Int2ObjectMap<Sound> sounds = this.attenuatedSounds.computeIfAbsent(sound, unused -> new Int2ObjectOpenHashMap<>());
+        Sound attenuatedSound = sounds.get(attenuationDistance);
+        if (attenuatedSound == null) {
+            attenuatedSound = new Sound(
+                    sound.getLocation().toString(),
+                    sound.getVolume(),
+                    sound.getPitch(),
+                    sound.getWeight(),
+                    sound.getType(),
+                    sound.shouldStream(),
+                    sound.shouldPreload(),
+                    attenuationDistance
+            );
+            sounds.put(attenuationDistance, attenuatedSound);
+        }
+        return attenuatedSound;
+    }
+}
@@ -1,25 +1,36 @@
 package com.github.burgerguy.recordable.mixin.client.score.cache;
 
-import com.github.burgerguy.recordable.client.score.FutureScore;
+import com.github.burgerguy.recordable.client.score.cache.ScoreCache;
 import com.github.burgerguy.recordable.client.score.cache.ScoreCacheContainer;
+import com.github.burgerguy.recordable.client.score.cache.ScoreDiskCache;
+import com.github.burgerguy.recordable.shared.Recordable;
 import com.github.burgerguy.recordable.shared.score.parse.MidiScoreParser;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.client.multiplayer.ClientPacketListener;
 import org.spongepowered.asm.mixin.Mixin;
 
 @Mixin(ClientPacketListener.class)
 public class ClientPacketListenerMixin implements ScoreCacheContainer {
-    private final Long2ObjectMap<FutureScore> scoreCache = create();
+    private final ScoreCache scoreCache = create();
+    private volatile long scoreDatabaseId = ScoreDiskCache.NO_DATABASE_ID;
 
-    private static Long2ObjectMap<FutureScore> create() {
-        Long2ObjectMap<FutureScore> scoreCache = new Long2ObjectOpenHashMap<>();
+    private static ScoreCache create() {
+        ScoreCache scoreCache = new ScoreCache(Recordable.CONFIG);
         MidiScoreParser.addToCache(scoreCache);
         return scoreCache;
     }
 
     @Override
-    public Long2ObjectMap<FutureScore> getScoreCache() {
+    public ScoreCache getScoreCache() {
         return this.scoreCache;
     }
+
+    @Override
+    public long getScoreDatabaseId() {
+        return this.scoreDatabaseId;
+    }
+
+    @Override
+    public void setScoreDatabaseId(long scoreDatabaseId) {
+        this.scoreDatabaseId = scoreDatabaseId;
+    }
 }
@@ -0,0 +1,21 @@
+package com.github.burgerguy.recordable.mixin.server.network;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.protocol.game.ClientboundCustomPayloadPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+/**
+ * Vanilla copies the whole payload before writing it into the packet, so the same packet can be written more than
+ * once. A slice does the same thing without the copy, which matters for score chunks, since they're views of a score
+ * that's shared between packets.
+ */
+@Mixin(ClientboundCustomPayloadPacket.class)
+public class ClientboundCustomPayloadPacketMixin {
+    @Redirect(method = "write", at = @At(value = "INVOKE", target = "Lnet/minecraft/network/FriendlyByteBuf;copy()Lio/netty/buffer/ByteBuf;"))
+    private ByteBuf sliceInsteadOfCopy(FriendlyByteBuf data) {
+        return data.slice();
+    }
+}
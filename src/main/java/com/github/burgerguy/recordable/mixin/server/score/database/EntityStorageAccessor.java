@@ -0,0 +1,12 @@
+package com.github.burgerguy.recordable.mixin.server.score.database;
+
+import net.minecraft.world.level.chunk.storage.EntityStorage;
+import net.minecraft.world.level.chunk.storage.IOWorker;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(EntityStorage.class)
+public interface EntityStorageAccessor {
+    @Accessor
+    IOWorker getWorker();
+}
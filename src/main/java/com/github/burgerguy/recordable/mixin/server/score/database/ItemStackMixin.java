@@ -0,0 +1,32 @@
+package com.github.burgerguy.recordable.mixin.server.score.database;
+
+import com.github.burgerguy.recordable.server.database.ScoreCollector;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Every record item, whether it's in an inventory, a jukebox, or a recorder, is loaded and saved through here.
+ */
+@Mixin(ItemStack.class)
+public class ItemStackMixin {
+    @Shadow
+    @Nullable
+    private CompoundTag tag;
+
+    @Inject(method = "<init>(Lnet/minecraft/nbt/CompoundTag;)V", at = @At("RETURN"))
+    private void markLoadedScore(CompoundTag compoundTag, CallbackInfo ci) {
+        ScoreCollector.markItemTag(this.tag);
+    }
+
+    @Inject(method = "save", at = @At("HEAD"))
+    private void markSavedScore(CompoundTag compoundTag, CallbackInfoReturnable<CompoundTag> cir) {
+        ScoreCollector.markItemTag(this.tag);
+    }
+}
@@ -1,13 +1,25 @@
 package com.github.burgerguy.recordable.mixin.server.score.database;
 
+import com.github.burgerguy.recordable.server.database.ScoreCollector;
 import com.github.burgerguy.recordable.server.database.ScoreDatabase;
 import com.github.burgerguy.recordable.server.database.ScoreDatabaseContainer;
+import com.github.burgerguy.recordable.server.network.ScoreSender;
 import net.minecraft.server.MinecraftServer;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(MinecraftServer.class)
 public class MinecraftServerMixin implements ScoreDatabaseContainer {
     private ScoreDatabase scoreDatabase;
+    private ScoreCollector scoreCollector;
+    private ScoreSender scoreSender;
+
+    @Inject(method = "saveAllChunks", at = @At("RETURN"))
+    private void onChunksSaved(boolean suppressLog, boolean flush, boolean forced, CallbackInfoReturnable<Boolean> cir) {
+        if (this.scoreCollector != null) this.scoreCollector.onWorldSaved();
+    }
 
     @Override
     public ScoreDatabase getScoreDatabase() {
@@ -18,4 +30,24 @@ public class MinecraftServerMixin implements ScoreDatabaseContainer {
     public void setScoreDatabase(ScoreDatabase database) {
         this.scoreDatabase = database;
     }
+
+    @Override
+    public ScoreCollector getScoreCollector() {
+        return this.scoreCollector;
+    }
+
+    @Override
+    public void setScoreCollector(ScoreCollector collector) {
+        this.scoreCollector = collector;
+    }
+
+    @Override
+    public ScoreSender getScoreSender() {
+        return this.scoreSender;
+    }
+
+    @Override
+    public void setScoreSender(ScoreSender sender) {
+        this.scoreSender = sender;
+    }
 }
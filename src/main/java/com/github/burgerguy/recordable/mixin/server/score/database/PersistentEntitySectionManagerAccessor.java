@@ -0,0 +1,12 @@
+package com.github.burgerguy.recordable.mixin.server.score.database;
+
+import net.minecraft.world.level.entity.EntityPersistentStorage;
+import net.minecraft.world.level.entity.PersistentEntitySectionManager;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(PersistentEntitySectionManager.class)
+public interface PersistentEntitySectionManagerAccessor {
+    @Accessor
+    EntityPersistentStorage<?> getPermanentStorage();
+}
@@ -0,0 +1,13 @@
+package com.github.burgerguy.recordable.mixin.server.score.database;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.entity.PersistentEntitySectionManager;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(ServerLevel.class)
+public interface ServerLevelEntityManagerAccessor {
+    @Accessor
+    PersistentEntitySectionManager<Entity> getEntityManager();
+}
@@ -0,0 +1,73 @@
+package com.github.burgerguy.recordable.server.database;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of a score as it was first stored, in the latest
+ * {@link com.github.burgerguy.recordable.shared.score.ScoreFormat} of the time and before it was compressed. Identical scores share one stored copy under this hash.
+ * <p>
+ * Scores keep their hash when the storage format is upgraded, so for older scores it isn't the hash of the bytes
+ * that are stored or sent, only a stable identifier of the score's content. Nothing should check a score's bytes
+ * against it.
+ */
+public final class ContentHash {
+    public static final int SIZE_BYTES = 32;
+    public static final String ALGORITHM = "SHA-256";
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private ContentHash(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Copies the hash out of the buffer, without touching its position.
+     */
+    public static ContentHash of(ByteBuffer buffer) {
+        byte[] bytes = new byte[SIZE_BYTES];
+        buffer.get(buffer.position(), bytes);
+        return new ContentHash(bytes);
+    }
+
+    /**
+     * MessageDigests aren't thread safe, so each thread that hashes scores should have its own.
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every java implementation is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] getBytes() {
+        return this.bytes.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof ContentHash other && Arrays.equals(this.bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(SIZE_BYTES * 2);
+        for (byte b : this.bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
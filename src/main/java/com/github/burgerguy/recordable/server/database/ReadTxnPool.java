@@ -0,0 +1,65 @@
+package com.github.burgerguy.recordable.server.database;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.lmdbjava.Env;
+import org.lmdbjava.Txn;
+
+/**
+ * Keeps reset read transactions around so they can be renewed instead of opened and closed for every request.
+ * A reset transaction keeps its reader slot, but doesn't hold on to a snapshot, so it doesn't stop pages from
+ * being reused or the map from being resized.
+ * <p>
+ * The environment has to be opened with MDB_NOTLS for this to work, because transactions are handed between
+ * threads and a thread can have more than one open at once.
+ */
+class ReadTxnPool {
+    private final Env<ByteBuffer> env;
+    private final Queue<Txn<ByteBuffer>> idleTxns;
+    private final AtomicInteger idleCount;
+    private final int maxIdle;
+
+    ReadTxnPool(Env<ByteBuffer> env, int maxIdle) {
+        this.env = env;
+        this.idleTxns = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.maxIdle = maxIdle;
+    }
+
+    Txn<ByteBuffer> acquire() {
+        Txn<ByteBuffer> txn = this.idleTxns.poll();
+        if (txn == null) {
+            return this.env.txnRead();
+        } else {
+            this.idleCount.decrementAndGet();
+            txn.renew();
+            return txn;
+        }
+    }
+
+    void release(Txn<ByteBuffer> txn) {
+        if (this.idleCount.incrementAndGet() <= this.maxIdle) {
+            txn.reset();
+            this.idleTxns.add(txn);
+        } else {
+            this.idleCount.decrementAndGet();
+            txn.close();
+        }
+    }
+
+    /**
+     * Should only be called once nothing else can acquire transactions.
+     */
+    void close() {
+        Txn<ByteBuffer> txn;
+        while ((txn = this.idleTxns.poll()) != null) {
+            // lmdbjava only aborts transactions that are ready when closing them, so we have to renew first
+            // to actually give back the reader slot.
+            txn.renew();
+            txn.close();
+        }
+        this.idleCount.set(0);
+    }
+}
@@ -0,0 +1,410 @@
+package com.github.burgerguy.recordable.server.database;
+
+import com.github.burgerguy.recordable.mixin.server.score.database.EntityStorageAccessor;
+import com.github.burgerguy.recordable.mixin.server.score.database.PersistentEntitySectionManagerAccessor;
+import com.github.burgerguy.recordable.mixin.server.score.database.ServerLevelEntityManagerAccessor;
+import com.github.burgerguy.recordable.server.score.record.RecordingStaging;
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.EntityStorage;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.storage.LevelResource;
+
+/**
+ * Incremental mark and sweep collector for scores which aren't referenced by any item anymore.
+ * <p>
+ * A cycle marks every score ID it can find in the world's storage, along with every ID in an item stack which
+ * is loaded or saved while the cycle runs. Once the storage scan is done, the collector waits for the next world
+ * save, so anything that moved around in memory during the scan gets saved (and marked). If there's no save for too
+ * long, the cycle is skipped. Every ID which existed before the cycle started and still isn't marked is then removed. Segments of long recordings are marked through
+ * their manifest, and segments of recordings which are still going are never removed.
+ * <p>
+ * Staging sessions of interrupted recordings are marked the same way through the recorders that saved them, and keep
+ * their segments alive until they're recovered, then the recovered score until the recorder is saved with it.
+ * Sessions which aren't marked or active anymore are discarded.
+ * <p>
+ * Everything runs on the collector's own thread in small slices, with a pause between each one, so neither the
+ * server thread nor the world's IO threads get stalled. Each sweep slice is its own short write transaction.
+ * If anything can't be read, the whole cycle is thrown away rather than risk removing a live score.
+ */
+public class ScoreCollector implements Closeable {
+    public static final String ENABLED_KEY = "gc.enabled";
+    public static final String INTERVAL_MINUTES_KEY = "gc.intervalMinutes";
+    public static final String SLICE_MILLIS_KEY = "gc.sliceMillis";
+    public static final String SLICE_PAUSE_MILLIS_KEY = "gc.slicePauseMillis";
+    public static final String SAVE_TIMEOUT_MINUTES_KEY = "gc.saveTimeoutMinutes";
+
+    private static final boolean DEFAULT_ENABLED = true;
+    private static final long DEFAULT_INTERVAL_MINUTES = 24 * 60;
+    private static final long DEFAULT_SLICE_MILLIS = 5;
+    private static final long DEFAULT_SLICE_PAUSE_MILLIS = 50;
+    private static final long DEFAULT_SAVE_TIMEOUT_MINUTES = 30; // autosaves are every 5 minutes
+    private static final int SWEEP_BATCH_SIZE = 256;
+    public static final String RECORDING_SESSION_TAG = "RecordingSession";
+    private static final String SCORE_ID_TAG = "ScoreID";
+    private static final Pattern REGION_FILE_PATTERN = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+    private static final int REGION_SIZE = 32;
+
+    /**
+     * Item stacks don't know which server they belong to, so marks go through whichever collector is running.
+     * There's only ever one server running at once.
+     */
+    @Nullable
+    private static volatile ScoreCollector activeCollector;
+
+    private final MinecraftServer server;
+    private final ScoreDatabase database;
+    private final long intervalMillis;
+    private final long sliceNanos;
+    private final long slicePauseMillis;
+    private final long saveTimeoutMillis;
+    /**
+     * Also used as the monitor for the save count.
+     */
+    private final LongSet markedIds;
+    /**
+     * Guarded by the marked IDs.
+     */
+    private final LongSet markedSessionIds;
+    private final Thread thread;
+    private volatile boolean marking;
+    private volatile boolean running;
+    private int saveCount;
+    private long sliceStart;
+    /**
+     * Only used by the collector's thread.
+     */
+    private boolean sweeping;
+
+    public ScoreCollector(MinecraftServer server, ScoreDatabase database, RecordableConfig config) {
+        this.server = server;
+        this.database = database;
+        this.intervalMillis = Math.max(config.getLong(INTERVAL_MINUTES_KEY, DEFAULT_INTERVAL_MINUTES), 1) * 60 * 1000;
+        this.sliceNanos = Math.max(config.getLong(SLICE_MILLIS_KEY, DEFAULT_SLICE_MILLIS), 1) * 1000000;
+        this.slicePauseMillis = Math.max(config.getLong(SLICE_PAUSE_MILLIS_KEY, DEFAULT_SLICE_PAUSE_MILLIS), 0);
+        this.saveTimeoutMillis = Math.max(config.getLong(SAVE_TIMEOUT_MINUTES_KEY, DEFAULT_SAVE_TIMEOUT_MINUTES), 1) * 60 * 1000;
+        this.markedIds = new LongOpenHashSet();
+        this.markedSessionIds = new LongOpenHashSet();
+        this.running = config.getBoolean(ENABLED_KEY, DEFAULT_ENABLED);
+        this.thread = new Thread(this::run, "Recordable Score Collector");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+
+        if (this.running) {
+            activeCollector = this;
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Should be called with the tag of every item stack that's loaded or saved. The whole tag is searched, because
+     * records can be inside other items, like shulker boxes and bundles.
+     */
+    public static void markItemTag(@Nullable CompoundTag itemTag) {
+        ScoreCollector collector = activeCollector;
+        if (collector != null && collector.marking && itemTag != null) {
+            collector.markAll(itemTag);
+        }
+    }
+
+    /**
+     * Should be called with the staging session of every recorder that's saved while recording.
+     */
+    public static void markRecordingSession(long sessionId) {
+        ScoreCollector collector = activeCollector;
+        if (collector != null && collector.marking) {
+            collector.markSession(sessionId);
+        }
+    }
+
+    /**
+     * Should be called on the server thread after every full world save.
+     */
+    public void onWorldSaved() {
+        synchronized (this.markedIds) {
+            this.saveCount++;
+            this.markedIds.notifyAll();
+        }
+    }
+
+    private void mark(long scoreId) {
+        synchronized (this.markedIds) {
+            this.markedIds.add(scoreId);
+        }
+    }
+
+    private void markSession(long sessionId) {
+        synchronized (this.markedIds) {
+            this.markedSessionIds.add(sessionId);
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                Thread.sleep(this.intervalMillis);
+                this.runCycle();
+            } catch (InterruptedException e) {
+                // either closing, or the cycle is being cut short
+            } catch (Throwable t) {
+                if (this.sweeping) {
+                    // slices that already finished stay removed, but everything they removed was unreferenced
+                    Recordable.LOGGER.error("Score collection failed while removing unreferenced scores, some may have been removed", t);
+                } else {
+                    Recordable.LOGGER.error("Score collection failed, no scores were removed", t);
+                }
+            } finally {
+                this.sweeping = false;
+                synchronized (this.markedIds) {
+                    this.marking = false;
+                    this.markedIds.clear();
+                    this.markedSessionIds.clear();
+                }
+            }
+        }
+    }
+
+    private void runCycle() throws InterruptedException, IOException {
+        this.database.unpinReleasedSegments();
+        // anything allocated after this point could be in an item that hasn't been saved yet
+        long idLimit = this.database.getIdAllocator().peekNextId();
+        this.marking = true;
+        this.sliceStart = System.nanoTime();
+        long cycleStart = System.currentTimeMillis();
+
+        List<ServerLevel> levels = new ArrayList<>();
+        this.server.getAllLevels().forEach(levels::add);
+        for (ServerLevel level : levels) {
+            Path dimensionPath = DimensionType.getStorageFolder(level.dimension(), this.server.getWorldPath(LevelResource.ROOT));
+            EntityStorage entityStorage = (EntityStorage) ((PersistentEntitySectionManagerAccessor) ((ServerLevelEntityManagerAccessor) level).getEntityManager()).getPermanentStorage();
+
+            // both of these go through the level's own IO workers, so unsaved changes are seen and nothing is read mid-write
+            this.scanRegions(dimensionPath.resolve("region"), pos -> level.getChunkSource().chunkMap.read(pos), "block_entities");
+            this.scanRegions(dimensionPath.resolve("entities"), pos -> ((EntityStorageAccessor) entityStorage).getWorker().load(pos), "Entities");
+            // saved data from other mods could be holding items too
+            this.scanNbtFiles(dimensionPath.resolve("data"));
+        }
+        this.scanNbtFiles(this.server.getWorldPath(LevelResource.PLAYER_DATA_DIR));
+
+        synchronized (this.markedIds) {
+            int scanSaveCount = this.saveCount;
+            long deadline = System.currentTimeMillis() + this.saveTimeoutMillis;
+            while (this.saveCount == scanSaveCount) {
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    // saving could be turned off. marking stops once this returns, and nothing is removed.
+                    Recordable.LOGGER.warn("The world wasn't saved within " + this.saveTimeoutMillis / 60000 + " minutes of scanning for scores, skipping score collection until the next interval");
+                    return;
+                }
+                this.markedIds.wait(remainingMillis);
+            }
+        }
+
+        // unreferenced staging sessions are discarded from here on
+        this.sweeping = true;
+        this.markStagingSessions();
+        this.markSegments(idLimit);
+
+        // manifests go first, so their segments can't be collected before them
+        int collectedCount = this.sweep(idLimit, this.database::listManifestIds);
+        collectedCount += this.sweep(idLimit, this.database::listScoreIds);
+
+        Recordable.LOGGER.info("Collected " + collectedCount + " unreferenced scores in " + (System.currentTimeMillis() - cycleStart) + "ms");
+    }
+
+    private int sweep(long idLimit, IdLister idLister) throws InterruptedException {
+        int collectedCount = 0;
+        long nextId = 0;
+        while (nextId < idLimit) {
+            long[] scoreIds = idLister.list(nextId, idLimit, SWEEP_BATCH_SIZE);
+            if (scoreIds.length == 0) break;
+            nextId = scoreIds[scoreIds.length - 1] + 1;
+
+            LongList unreferencedIds = new LongArrayList();
+            synchronized (this.markedIds) {
+                for (long scoreId : scoreIds) {
+                    if (!this.markedIds.contains(scoreId) && !this.database.isSegmentPinned(scoreId)) unreferencedIds.add(scoreId);
+                }
+            }
+            if (!unreferencedIds.isEmpty()) {
+                collectedCount += this.database.deleteScores(unreferencedIds.toLongArray());
+            }
+            Thread.sleep(this.slicePauseMillis);
+        }
+        return collectedCount;
+    }
+
+    /**
+     * Marks the scores of every staging session that could still be recovered or was just recovered, and discards
+     * the rest.
+     */
+    private void markStagingSessions() throws InterruptedException {
+        for (long sessionId : this.database.listStagingSessionIds()) {
+            // active sessions pin their own segments
+            if (this.database.isStagingSessionActive(sessionId)) continue;
+
+            boolean referenced;
+            synchronized (this.markedIds) {
+                referenced = this.markedSessionIds.contains(sessionId);
+            }
+            if (referenced) {
+                for (long scoreId : RecordingStaging.getScoreIds(this.database, sessionId)) {
+                    this.mark(scoreId);
+                }
+            } else {
+                this.database.closeStagingSession(sessionId, true);
+            }
+            this.checkSlice();
+        }
+    }
+
+    /**
+     * Marks the segments of every marked manifest, and of every manifest that's too new to have been marked.
+     */
+    private void markSegments(long idLimit) throws InterruptedException {
+        long nextId = 0;
+        while (true) {
+            long[] manifestIds = this.database.listManifestIds(nextId, Long.MAX_VALUE, SWEEP_BATCH_SIZE);
+            if (manifestIds.length == 0) break;
+            nextId = manifestIds[manifestIds.length - 1] + 1;
+
+            for (long manifestId : manifestIds) {
+                boolean referenced;
+                synchronized (this.markedIds) {
+                    referenced = manifestId >= idLimit || this.markedIds.contains(manifestId);
+                }
+                if (!referenced) continue;
+
+                ScoreManifest manifest = this.database.getManifest(manifestId);
+                if (manifest != null) {
+                    for (long segmentId : manifest.segmentIds()) {
+                        this.mark(segmentId);
+                    }
+                }
+            }
+            this.checkSlice();
+        }
+    }
+
+    private void scanRegions(Path regionDir, ChunkReader chunkReader, String listKey) throws InterruptedException, IOException {
+        if (!Files.isDirectory(regionDir)) return;
+
+        List<Path> regionFiles;
+        try (Stream<Path> files = Files.list(regionDir)) {
+            regionFiles = files.toList();
+        }
+
+        for (Path regionFile : regionFiles) {
+            Matcher matcher = REGION_FILE_PATTERN.matcher(regionFile.getFileName().toString());
+            if (!matcher.matches()) continue;
+            int regionX = Integer.parseInt(matcher.group(1));
+            int regionZ = Integer.parseInt(matcher.group(2));
+
+            for (int x = 0; x < REGION_SIZE; x++) {
+                for (int z = 0; z < REGION_SIZE; z++) {
+                    CompoundTag chunkTag = chunkReader.read(new ChunkPos(regionX * REGION_SIZE + x, regionZ * REGION_SIZE + z));
+                    if (chunkTag != null) {
+                        // only look where items can be, chunks are mostly block states
+                        this.markAll(chunkTag.getList(listKey, Tag.TAG_COMPOUND));
+                    }
+                    this.checkSlice();
+                }
+            }
+        }
+    }
+
+    private void scanNbtFiles(Path dir) throws InterruptedException, IOException {
+        if (!Files.isDirectory(dir)) return;
+
+        List<Path> nbtFiles;
+        try (Stream<Path> files = Files.list(dir)) {
+            nbtFiles = files.filter(p -> p.getFileName().toString().endsWith(".dat")).toList();
+        }
+
+        for (Path nbtFile : nbtFiles) {
+            this.markAll(NbtIo.readCompressed(nbtFile.toFile()));
+            this.checkSlice();
+        }
+    }
+
+    private void markAll(Tag tag) {
+        if (tag instanceof CompoundTag compoundTag) {
+            for (String key : compoundTag.getAllKeys()) {
+                Tag childTag = compoundTag.get(key);
+                if (key.equals(SCORE_ID_TAG) && childTag instanceof LongTag longTag) {
+                    this.mark(longTag.getAsLong());
+                } else if (key.equals(RECORDING_SESSION_TAG) && childTag instanceof LongTag longTag) {
+                    this.markSession(longTag.getAsLong());
+                } else {
+                    this.markAll(childTag);
+                }
+            }
+        } else if (tag instanceof ListTag listTag) {
+            for (Tag childTag : listTag) {
+                this.markAll(childTag);
+            }
+        }
+    }
+
+    private void checkSlice() throws InterruptedException {
+        if (!this.running) throw new InterruptedException();
+        if (System.nanoTime() - this.sliceStart > this.sliceNanos) {
+            Thread.sleep(this.slicePauseMillis);
+            this.sliceStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Stops the current cycle without removing anything.
+     */
+    @Override
+    public void close() {
+        if (!this.running) return;
+        this.running = false;
+        if (activeCollector == this) activeCollector = null;
+        this.thread.interrupt();
+        boolean interrupted = false;
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    @FunctionalInterface
+    private interface IdLister {
+        long[] list(long fromId, long toId, int maxCount);
+    }
+
+    @FunctionalInterface
+    private interface ChunkReader {
+        @Nullable
+        CompoundTag read(ChunkPos pos) throws IOException;
+    }
+}
@@ -1,99 +1,1139 @@
 package com.github.burgerguy.recordable.server.database;
 
+import com.github.burgerguy.recordable.server.score.record.RecordingStaging;
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import com.github.burgerguy.recordable.shared.score.ScoreCodec;
+import com.github.burgerguy.recordable.shared.score.ScoreEncoder;
+import com.github.burgerguy.recordable.shared.score.ScoreFormat;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
 import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import org.lmdbjava.*;
 
+/**
+ * Scores are content addressed, so identical recordings are only stored once:
+ * <ul>
+ *     <li>score ID -> content hash</li>
+ *     <li>content hash -> score data</li>
+ *     <li>content hash -> reference count (4 byte int)</li>
+ * </ul>
+ * The reference counts are kept out of the data entries so changing them doesn't rewrite the whole score.
+ * Recordings which are too long for one score are stored as segments, each with its own score ID, and a
+ * {@link ScoreManifest} listing them is stored under the recording's ID in its own database.
+ * <p>
+ * Recordings which are still going are checkpointed into the staging database, keyed by their session ID followed by
+ * a big endian sequence number, so they can be recovered if the server stops before they do. The contents of the
+ * records are up to the recorder.
+ * Scores are converted to the latest {@link ScoreFormat} before they're hashed, then encoded with {@link ScoreCodec},
+ * so changing the codec doesn't break deduplication.
+ */
 public class ScoreDatabase implements Closeable {
-    public static final String DB_NAME = "64 Bit ID to Record Data";
+    /**
+     * Scores were stored directly under their ID before content addressing was added.
+     * Anything left in here is migrated when the database is opened.
+     */
+    public static final String LEGACY_DB_NAME = "64 Bit ID to Record Data";
+    public static final String ID_TO_HASH_DB_NAME = "Score ID to Content Hash";
+    public static final String HASH_TO_DATA_DB_NAME = "Content Hash to Score Data";
+    public static final String HASH_TO_REF_COUNT_DB_NAME = "Content Hash to Reference Count";
+    public static final String METADATA_DB_NAME = "Metadata";
+    public static final String MANIFEST_DB_NAME = "Manifest ID to Segment List";
+    public static final String STAGING_DB_NAME = "Recording Session to Staged Data";
+
+    public static final String INITIAL_MAP_SIZE_KEY = "database.initialMapSize";
+    public static final String MAP_GROWTH_FACTOR_KEY = "database.mapGrowthFactor";
+    public static final String MAX_MAP_SIZE_KEY = "database.maxMapSize";
+    public static final String COMPRESSION_LEVEL_KEY = "database.compressionLevel";
+    public static final String STORAGE_VERSION_KEY = "storage_version";
+    public static final String DATABASE_ID_KEY = "database_id";
+    /**
+     * 0: score data stored as is
+     * 1: score data stored with a {@link ScoreCodec} header
+     * 2: score data converted to {@link ScoreFormat#V3}, so sounds are stored by location instead of registry ID
+     */
+    public static final long CURRENT_STORAGE_VERSION = 2;
+
+    private static final long DEFAULT_INITIAL_MAP_SIZE = 67108864; // 2^26, 64MiB
+    private static final double DEFAULT_MAP_GROWTH_FACTOR = 2.0;
+    private static final long DEFAULT_MAX_MAP_SIZE = 17179869184L; // 2^34, 16GiB
+    private static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    /**
+     * How full the map can get before we grow it ahead of time, rather than waiting for MDB_MAP_FULL.
+     */
+    private static final double MAP_GROW_THRESHOLD = 0.8;
+    /**
+     * The two meta pages at the start of every LMDB file, which never show up in any stat.
+     */
+    private static final int META_PAGE_COUNT = 2;
+    /**
+     * Max amount of reset read transactions kept around. LMDB has 126 reader slots by default.
+     */
+    private static final int MAX_IDLE_READ_TXNS = 16;
 
     private final Env<ByteBuffer> dbEnv;
-    private final Dbi<ByteBuffer> internalDb;
-    private long nextScoreId;
+    private final Dbi<ByteBuffer> legacyDb;
+    private final Dbi<ByteBuffer> idToHashDb;
+    private final Dbi<ByteBuffer> hashToDataDb;
+    private final Dbi<ByteBuffer> hashToRefCountDb;
+    private final Dbi<ByteBuffer> metadataDb;
+    private final Dbi<ByteBuffer> manifestDb;
+    private final Dbi<ByteBuffer> stagingDb;
+    private final ReadTxnPool readTxnPool;
+    private final double mapGrowthFactor;
+    private final long maxMapSize;
+    /**
+     * LMDB requires that no transactions are active in the process while the map is being resized,
+     * so every transaction holds a read stamp for its lifetime and resizing takes the write stamp.
+     * This lets outstanding ScoreRequests finish untouched, and new transactions only wait for the
+     * resize itself. A StampedLock is used over a ReentrantReadWriteLock because requests don't
+     * have to be closed on the thread that opened them.
+     */
+    private final StampedLock resizeLock;
+    /**
+     * Only used by the writer thread, or before it's started.
+     */
+    private final MessageDigest writerDigest;
+    private final ScoreEncoder writerEncoder;
+    private final ScoreCodec writerCodec;
+    private final ScoreWriter writer;
+    private final ScoreIdAllocator idAllocator;
+    /**
+     * Segments of recordings that are still going, which nothing can reference yet. Pins are only released when
+     * the collector starts a new cycle, so a cycle never sees a segment go from pinned to referenced partway through.
+     * Also used as the monitor for the released pins.
+     */
+    private final LongSet pinnedSegmentIds;
+    private final LongList releasedSegmentIds;
+    /**
+     * Sessions of recorders which are still recording, which the collector should never touch.
+     */
+    private final LongSet activeSessionIds;
+    private final long databaseId;
+    private volatile long mapSize;
+
+    public ScoreDatabase(Path dbFile, RecordableConfig config) {
+        long initialMapSize = config.getLong(INITIAL_MAP_SIZE_KEY, DEFAULT_INITIAL_MAP_SIZE);
+        this.mapGrowthFactor = Math.max(config.getDouble(MAP_GROWTH_FACTOR_KEY, DEFAULT_MAP_GROWTH_FACTOR), 1.1);
+        this.maxMapSize = Math.max(config.getLong(MAX_MAP_SIZE_KEY, DEFAULT_MAX_MAP_SIZE), initialMapSize);
+        this.resizeLock = new StampedLock();
+        this.writerDigest = ContentHash.createDigest();
+        this.writerEncoder = new ScoreEncoder();
+        this.writerCodec = new ScoreCodec(config.getInt(COMPRESSION_LEVEL_KEY, DEFAULT_COMPRESSION_LEVEL));
+        this.pinnedSegmentIds = new LongOpenHashSet();
+        this.releasedSegmentIds = new LongArrayList();
+        this.activeSessionIds = new LongOpenHashSet();
 
-    public ScoreDatabase(Path dbFile) {
         this.dbEnv = Env.create()
-                    .setMaxDbs(1)
-                    .setMapSize(67108864) // 2^26, 64MiB
-                    .open(dbFile.toFile(), EnvFlags.MDB_WRITEMAP, EnvFlags.MDB_NOSUBDIR);
+                    .setMaxDbs(7)
+                    .setMapSize(initialMapSize)
+                    // NOTLS lets read transactions be pooled and passed between threads
+                    .open(dbFile.toFile(), EnvFlags.MDB_WRITEMAP, EnvFlags.MDB_NOSUBDIR, EnvFlags.MDB_NOTLS);
         // use long keys for performance
-        this.internalDb = this.dbEnv.openDbi(DB_NAME, DbiFlags.MDB_CREATE, DbiFlags.MDB_INTEGERKEY);
+        this.legacyDb = this.dbEnv.openDbi(LEGACY_DB_NAME, DbiFlags.MDB_CREATE, DbiFlags.MDB_INTEGERKEY);
+        this.idToHashDb = this.dbEnv.openDbi(ID_TO_HASH_DB_NAME, DbiFlags.MDB_CREATE, DbiFlags.MDB_INTEGERKEY);
+        // hashes are evenly distributed, so the default byte comparison is as good as anything
+        this.hashToDataDb = this.dbEnv.openDbi(HASH_TO_DATA_DB_NAME, DbiFlags.MDB_CREATE);
+        this.hashToRefCountDb = this.dbEnv.openDbi(HASH_TO_REF_COUNT_DB_NAME, DbiFlags.MDB_CREATE);
+        // string keys, for anything about the database as a whole
+        this.metadataDb = this.dbEnv.openDbi(METADATA_DB_NAME, DbiFlags.MDB_CREATE);
+        this.manifestDb = this.dbEnv.openDbi(MANIFEST_DB_NAME, DbiFlags.MDB_CREATE, DbiFlags.MDB_INTEGERKEY);
+        // big endian keys, so all the records of a session are next to each other and in order
+        this.stagingDb = this.dbEnv.openDbi(STAGING_DB_NAME, DbiFlags.MDB_CREATE);
+
+        this.readTxnPool = new ReadTxnPool(this.dbEnv, MAX_IDLE_READ_TXNS);
+
+        // if the file is already bigger than the initial size, LMDB will keep the bigger size
+        this.mapSize = this.dbEnv.info().mapSize;
+
+        // has to happen first, the legacy migration already writes in the current format
+        this.upgradeStorageFormat();
+        this.migrateLegacyScores();
+
+        this.idAllocator = new ScoreIdAllocator(this, this.readInitialNextScoreId());
+        this.databaseId = this.readOrCreateDatabaseId();
+
+        this.writer = new ScoreWriter(this);
+
+        Recordable.LOGGER.info("Opened score database: " + this.getStatistics());
+    }
+
+    /**
+     * Reserves an ID for the score and queues it to be written on the writer thread, so the caller
+     * gets the ID immediately. The buffer provided should be in big endian, and must have been allocated
+     * with {@link SCMemUtil#malloc(int)}. The database takes ownership of it and frees it once it's written.
+     */
+    public long queueScore(ByteBuffer value) {
+        long id = this.idAllocator.allocate();
+        this.writer.queueScore(id, value, false);
+        return id;
+    }
+
+    /**
+     * Same as {@link #queueScore(ByteBuffer)}, but the score is kept from being collected until
+     * {@link #releaseSegments(long...)} is called, because nothing references it until its manifest is stored.
+     */
+    public long queueSegment(ByteBuffer value) {
+        long id = this.queueScore(value);
+        synchronized (this.pinnedSegmentIds) {
+            this.pinnedSegmentIds.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Same as {@link #queueScore(ByteBuffer)}, but for a manifest of segments which have already been queued.
+     * Everything is written in the order it's queued, so the segments are always written first.
+     * The segments are released, since the manifest references them from now on.
+     */
+    public long queueManifest(ScoreManifest manifest) {
+        ByteBuffer manifestBuffer = SCMemUtil.malloc(manifest.getSizeBytes()).order(ByteOrder.BIG_ENDIAN);
+        manifest.write(manifestBuffer);
+        long id = this.idAllocator.allocate();
+        this.writer.queueScore(id, manifestBuffer.flip(), true);
+        this.releaseSegments(manifest.segmentIds());
+        return id;
+    }
+
+    /**
+     * Keeps segments which have already been stored from being collected until {@link #releaseSegments(long...)} is
+     * called, for when a manifest is about to be made for them.
+     */
+    public void pinSegments(long... segmentIds) {
+        synchronized (this.pinnedSegmentIds) {
+            this.pinnedSegmentIds.addAll(LongArrayList.wrap(segmentIds));
+        }
+    }
+
+    /**
+     * Lets the collector treat the segments like any other score once its next cycle starts.
+     */
+    public void releaseSegments(long... segmentIds) {
+        synchronized (this.pinnedSegmentIds) {
+            this.releasedSegmentIds.addAll(LongArrayList.wrap(segmentIds));
+        }
+    }
+
+    boolean isSegmentPinned(long scoreId) {
+        synchronized (this.pinnedSegmentIds) {
+            return this.pinnedSegmentIds.contains(scoreId);
+        }
+    }
+
+    /**
+     * Only the collector should call this, when it starts a cycle.
+     */
+    void unpinReleasedSegments() {
+        synchronized (this.pinnedSegmentIds) {
+            this.pinnedSegmentIds.removeAll(this.releasedSegmentIds);
+            this.releasedSegmentIds.clear();
+        }
+    }
+
+    /**
+     * Starts a new staging session for a recording, which is active until it's closed.
+     */
+    public long openStagingSession() {
+        long sessionId = this.idAllocator.allocate();
+        synchronized (this.activeSessionIds) {
+            this.activeSessionIds.add(sessionId);
+        }
+        return sessionId;
+    }
+
+    /**
+     * Appends a record to the session on the writer thread. The buffer is owned by the database after this is
+     * called, same as {@link #queueScore(ByteBuffer)}.
+     */
+    public void queueStagingRecord(long sessionId, int sequence, ByteBuffer record) {
+        this.writer.queueStagingRecord(sessionId, sequence, record);
+    }
+
+    /**
+     * If discard is true, everything staged for the session is removed once everything queued before it is written.
+     * Otherwise, it's kept so it can be recovered later.
+     */
+    public void closeStagingSession(long sessionId, boolean discard) {
+        synchronized (this.activeSessionIds) {
+            this.activeSessionIds.remove(sessionId);
+        }
+        if (discard) this.writer.queueStagingDelete(sessionId);
+    }
+
+    boolean isStagingSessionActive(long sessionId) {
+        synchronized (this.activeSessionIds) {
+            return this.activeSessionIds.contains(sessionId);
+        }
+    }
+
+    /**
+     * Recovers the session with {@link RecordingStaging#recover} on the writer thread, once everything queued for it
+     * so far has been written, so nothing that was checkpointed is left out and the caller never waits on a read.
+     * The callback is called on the writer thread once the recovered score is committed, with its ID, or -1 if
+     * nothing was staged.
+     */
+    public void queueStagingRecovery(long sessionId, LongConsumer onRecovered) {
+        // allocated here, because the allocator can wait on the writer thread
+        long scoreId = this.idAllocator.allocate();
+        long finalSegmentId = this.idAllocator.allocate();
+        this.writer.queueStagingRecovery(new StagingRecovery(sessionId, scoreId, finalSegmentId, onRecovered));
+    }
+
+    /**
+     * Returns copies of all the records staged for the session, in order.
+     */
+    public List<ByteBuffer> readStagingRecords(long sessionId) {
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
+        try {
+            SCMemUtil.pushStack();
+            readTxn = this.readTxnPool.acquire();
+            return this.readStagingRecords(readTxn, sessionId);
+        } finally {
+            SCMemUtil.popStack();
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+        }
+    }
 
+    private List<ByteBuffer> readStagingRecords(Txn<ByteBuffer> txn, long sessionId) {
+        List<ByteBuffer> records = new ArrayList<>();
+        try (Cursor<ByteBuffer> cursor = this.stagingDb.openCursor(txn)) {
+            boolean hasEntry = cursor.get(stackStagingKey(sessionId, 0), GetOp.MDB_SET_RANGE);
+            while (hasEntry && cursor.key().order(ByteOrder.BIG_ENDIAN).getLong(0) == sessionId) {
+                ByteBuffer record = ByteBuffer.allocate(cursor.val().remaining());
+                records.add(record.put(cursor.val()).flip());
+                hasEntry = cursor.next();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Lists every session with anything staged, including active ones.
+     */
+    public long[] listStagingSessionIds() {
+        LongList sessionIds = new LongArrayList();
+
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
+        try {
+            SCMemUtil.pushStack();
+            readTxn = this.readTxnPool.acquire();
+            try (Cursor<ByteBuffer> cursor = this.stagingDb.openCursor(readTxn)) {
+                boolean hasEntry = cursor.first();
+                while (hasEntry) {
+                    long sessionId = cursor.key().order(ByteOrder.BIG_ENDIAN).getLong(0);
+                    sessionIds.add(sessionId);
+                    // skip the rest of the session's records
+                    if (sessionId == Long.MAX_VALUE) break;
+                    hasEntry = cursor.get(stackStagingKey(sessionId + 1, 0), GetOp.MDB_SET_RANGE);
+                }
+            }
+        } finally {
+            SCMemUtil.popStack();
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+        }
+
+        return sessionIds.toLongArray();
+    }
+
+    public long getDatabaseId() {
+        return this.databaseId;
+    }
+
+    public ScoreIdAllocator getIdAllocator() {
+        return this.idAllocator;
+    }
+
+    /**
+     * Rewrites all the stored data in the current storage format, if the database was made with an older one.
+     */
+    private void upgradeStorageFormat() {
+        long storageVersion;
+        long dataBytes;
         try (Txn<ByteBuffer> txn = this.dbEnv.txnRead()) {
-            this.nextScoreId = this.internalDb.stat(txn).entries;
+            ByteBuffer storageVersionBuffer = this.readMetadata(txn, STORAGE_VERSION_KEY);
+            storageVersion = storageVersionBuffer == null ? 0 : storageVersionBuffer.order(ByteOrder.BIG_ENDIAN).getLong(0);
+            Stat dataStat = this.hashToDataDb.stat(txn);
+            dataBytes = countPages(dataStat) * dataStat.pageSize;
         }
+        if (storageVersion >= CURRENT_STORAGE_VERSION) return;
+
+        Recordable.LOGGER.info("Upgrading score database from storage version " + storageVersion + " to " + CURRENT_STORAGE_VERSION);
+        this.write(dataBytes, txn -> {
+            try (Cursor<ByteBuffer> cursor = this.hashToDataDb.openCursor(txn)) {
+                ByteBuffer hashBuffer = SCMemUtil.mallocStack(8, ContentHash.SIZE_BYTES);
+                boolean hasEntry = cursor.first();
+                while (hasEntry) {
+                    // the cursor's key points into the page we're about to replace
+                    hashBuffer.clear().put(cursor.key()).flip();
+                    ByteBuffer storedData = cursor.val();
+                    if (storageVersion == 0) {
+                        // no header yet, these are always raw V1
+                        this.upgradeStoredScore(cursor, hashBuffer, storedData, ScoreFormat.V1);
+                    } else if (ScoreCodec.getFormatVersion(storedData) != ScoreFormat.LATEST) {
+                        boolean needsFree = ScoreCodec.needsDecoding(storedData);
+                        ByteBuffer decodedData = decodeStoredData(-1, storedData);
+                        // anything that can't be decoded is left alone, so it can still be looked at later
+                        if (decodedData != null) {
+                            this.upgradeStoredScore(cursor, hashBuffer, decodedData, ScoreCodec.getFormatVersion(storedData));
+                            if (needsFree) SCMemUtil.free(decodedData);
+                        }
+                    }
+                    hasEntry = cursor.next();
+                }
+            }
+            ByteBuffer versionBuffer = SCMemUtil.mallocStack(8, 8).order(ByteOrder.BIG_ENDIAN).putLong(CURRENT_STORAGE_VERSION).flip();
+            this.metadataDb.put(txn, stackMetadataKey(STORAGE_VERSION_KEY), versionBuffer);
+            return null;
+        });
+    }
+
+    /**
+     * Scores keep the hash of what they were first stored as, so older scores won't be deduplicated with new
+     * copies of themselves. This is fine, it only means they're stored twice.
+     */
+    private void upgradeStoredScore(Cursor<ByteBuffer> cursor, ByteBuffer hashBuffer, ByteBuffer score, int formatVersion) {
+        ByteBuffer encodedData = this.writerEncoder.encode(score, formatVersion);
+        cursor.put(hashBuffer, this.writerCodec.encode(encodedData, ScoreFormat.LATEST), PutFlags.MDB_CURRENT);
     }
 
     /**
-     * The buffer provided should be in big endian
+     * Moves everything in the legacy ID -> data database into the content addressed databases.
+     * This only has to scan anything the first time a database from before content addressing is opened.
      */
-    public long storeScore(ByteBuffer value) {
-        long id = this.nextScoreId;
+    private void migrateLegacyScores() {
+        long legacyEntries;
+        long legacyBytes;
+        try (Txn<ByteBuffer> txn = this.dbEnv.txnRead()) {
+            Stat legacyStat = this.legacyDb.stat(txn);
+            legacyEntries = legacyStat.entries;
+            legacyBytes = countPages(legacyStat) * legacyStat.pageSize;
+        }
+        if (legacyEntries == 0) return;
+
+        Recordable.LOGGER.info("Migrating " + legacyEntries + " scores to content addressed storage");
+        // the old pages aren't freed until the transaction commits, so we need room for a full copy
+        this.write(legacyBytes, txn -> {
+            try (Cursor<ByteBuffer> cursor = this.legacyDb.openCursor(txn)) {
+                boolean hasEntry = cursor.first();
+                while (hasEntry) {
+                    long scoreId = cursor.key().order(ByteOrder.nativeOrder()).getLong(0);
+                    this.putScore(txn, scoreId, cursor.val());
+                    hasEntry = cursor.next();
+                }
+            }
+            this.legacyDb.drop(txn);
+            return null;
+        });
+    }
+
+    /**
+     * Databases from before the ID counter was persisted don't have it, so it's seeded with the last key in the
+     * database instead. Both of these are a single lookup, so this never has to scan the database.
+     */
+    private long readInitialNextScoreId() {
+        try (Txn<ByteBuffer> txn = this.dbEnv.txnRead()) {
+            ByteBuffer persistedValue = this.readMetadata(txn, ScoreIdAllocator.NEXT_ID_KEY);
+            if (persistedValue != null) {
+                return persistedValue.order(ByteOrder.BIG_ENDIAN).getLong(0);
+            }
+
+            // integer keys are sorted numerically, so the last key is the highest ID
+            return Math.max(readLastId(this.idToHashDb, txn), readLastId(this.manifestDb, txn)) + 1;
+        }
+    }
+
+    /**
+     * A random ID made when the database is first opened, so clients can tell which database a score ID is from.
+     */
+    private long readOrCreateDatabaseId() {
+        try (Txn<ByteBuffer> txn = this.dbEnv.txnRead()) {
+            ByteBuffer persistedValue = this.readMetadata(txn, DATABASE_ID_KEY);
+            if (persistedValue != null) {
+                return persistedValue.order(ByteOrder.BIG_ENDIAN).getLong(0);
+            }
+        }
+
+        long databaseId;
+        do {
+            databaseId = new SecureRandom().nextLong();
+        } while (databaseId == 0); // clients use 0 for no database
+        this.writeMetadataLong(DATABASE_ID_KEY, databaseId);
+        return databaseId;
+    }
+
+    private static long readLastId(Dbi<ByteBuffer> dbi, Txn<ByteBuffer> txn) {
+        try (Cursor<ByteBuffer> cursor = dbi.openCursor(txn)) {
+            return cursor.last() ? cursor.key().order(ByteOrder.nativeOrder()).getLong(0) : -1;
+        }
+    }
+
+    private ByteBuffer readMetadata(Txn<ByteBuffer> txn, String key) {
         try {
             SCMemUtil.pushStack();
-            // LMDB usually expects big endian, but because we're using direct long keys, we can keep it as native
-            ByteBuffer idBuffer = SCMemUtil.mallocStack(8, 8).putLong(this.nextScoreId).flip();
-            this.internalDb.put(idBuffer, value);
+            return this.metadataDb.get(txn, stackMetadataKey(key));
         } finally {
             SCMemUtil.popStack();
         }
-        this.nextScoreId++;
-        return id;
+    }
+
+    void writeMetadataLong(String key, long value) {
+        this.write(0, txn -> {
+            this.putMetadataLong(txn, key, value);
+            return null;
+        });
+    }
+
+    private void putMetadataLong(Txn<ByteBuffer> txn, String key, long value) {
+        ByteBuffer valueBuffer = SCMemUtil.mallocStack(8, 8).order(ByteOrder.BIG_ENDIAN).putLong(value).flip();
+        this.metadataDb.put(txn, stackMetadataKey(key), valueBuffer);
+    }
+
+    /**
+     * Writes the ID limit right away, on the caller's thread. Only the allocator should call this.
+     */
+    void writeIdLimit(long limit) {
+        this.write(0, txn -> {
+            this.putIdLimit(txn, limit);
+            return null;
+        });
+    }
+
+    /**
+     * Queues the ID limit to be written on the writer thread. The allocator is told once it's been written.
+     */
+    void queueIdLimit(long limit) {
+        this.writer.queueIdLimit(limit);
+    }
+
+    /**
+     * Limits can be written from the writer thread and the allocator's caller at once, so the limit never goes down.
+     */
+    private void putIdLimit(Txn<ByteBuffer> txn, long limit) {
+        ByteBuffer persistedValue = this.readMetadata(txn, ScoreIdAllocator.NEXT_ID_KEY);
+        if (persistedValue != null && persistedValue.order(ByteOrder.BIG_ENDIAN).getLong(0) >= limit) return;
+        this.putMetadataLong(txn, ScoreIdAllocator.NEXT_ID_KEY, limit);
+    }
+
+    /**
+     * Writes everything in one transaction. Only the writer thread should call this.
+     */
+    void writePending(List<ScoreWriter.PendingWrite> pendingWrites) {
+        long totalBytes = 0;
+        for (ScoreWriter.PendingWrite pendingWrite : pendingWrites) {
+            if (pendingWrite.data() != null) totalBytes += pendingWrite.data().remaining();
+        }
+
+        long[] recoveredIds = new long[pendingWrites.size()];
+        this.write(totalBytes, txn -> {
+            for (int i = 0; i < pendingWrites.size(); i++) {
+                ScoreWriter.PendingWrite pendingWrite = pendingWrites.get(i);
+                switch (pendingWrite.type()) {
+                    case SCORE -> this.putScore(txn, pendingWrite.id(), pendingWrite.data());
+                    case MANIFEST -> this.manifestDb.put(txn, stackIdKey(pendingWrite.id()), pendingWrite.data());
+                    case STAGING_RECORD -> this.stagingDb.put(txn, stackStagingKey(pendingWrite.id(), pendingWrite.sequence()), pendingWrite.data());
+                    case STAGING_DELETE -> this.deleteStagingSession(txn, pendingWrite.id());
+                    case STAGING_RECOVERY -> recoveredIds[i] = this.recoverStagingSession(txn, pendingWrite.recovery());
+                    case ID_LIMIT -> this.putIdLimit(txn, pendingWrite.id());
+                }
+            }
+            return null;
+        });
+
+        // only once everything's committed
+        for (int i = 0; i < pendingWrites.size(); i++) {
+            StagingRecovery recovery = pendingWrites.get(i).recovery();
+            if (recovery == null) continue;
+            try {
+                recovery.onRecovered().accept(recoveredIds[i]);
+            } catch (Exception e) {
+                Recordable.LOGGER.error("Error handling recovered staging session " + recovery.sessionId(), e);
+            }
+        }
+    }
+
+    /**
+     * Stores the recovered recording, and replaces the session's records with a record of it.
+     */
+    private long recoverStagingSession(Txn<ByteBuffer> txn, StagingRecovery recovery) {
+        List<ByteBuffer> records = this.readStagingRecords(txn, recovery.sessionId());
+        long recoveredId = RecordingStaging.recover(records, recovery.sessionId(), recovery.scoreId(), recovery.finalSegmentId(), new RecordingStaging.RecoveryOutput() {
+            @Override
+            public void putScore(long scoreId, ByteBuffer data) {
+                ScoreDatabase.this.putScore(txn, scoreId, data);
+            }
+
+            @Override
+            public void putManifest(long scoreId, ScoreManifest manifest) {
+                ByteBuffer manifestBuffer = SCMemUtil.malloc(manifest.getSizeBytes()).order(ByteOrder.BIG_ENDIAN);
+                try {
+                    manifest.write(manifestBuffer);
+                    ScoreDatabase.this.manifestDb.put(txn, stackIdKey(scoreId), manifestBuffer.flip());
+                } finally {
+                    SCMemUtil.free(manifestBuffer);
+                }
+            }
+        });
+
+        if (recoveredId != -1) {
+            this.deleteStagingSession(txn, recovery.sessionId());
+            ByteBuffer record = RecordingStaging.writeRecoveredRecord(SCMemUtil.mallocStack(8, RecordingStaging.RECOVERED_RECORD_SIZE_BYTES), recoveredId);
+            this.stagingDb.put(txn, stackStagingKey(recovery.sessionId(), 0), record);
+        }
+        return recoveredId;
+    }
+
+    private void deleteStagingSession(Txn<ByteBuffer> txn, long sessionId) {
+        try (Cursor<ByteBuffer> cursor = this.stagingDb.openCursor(txn)) {
+            boolean hasEntry = cursor.get(stackStagingKey(sessionId, 0), GetOp.MDB_SET_RANGE);
+            while (hasEntry && cursor.key().order(ByteOrder.BIG_ENDIAN).getLong(0) == sessionId) {
+                cursor.delete();
+                // deleting moves the cursor to the next entry, but it has to be read again
+                hasEntry = cursor.get(stackStagingKey(sessionId, 0), GetOp.MDB_SET_RANGE);
+            }
+        }
+    }
+
+    /**
+     * Stores the data under its content hash if it isn't already stored, and points the ID at it.
+     * The position of the data buffer isn't changed, so this can be retried with the same buffer.
+     */
+    private void putScore(Txn<ByteBuffer> txn, long scoreId, ByteBuffer data) {
+        try {
+            SCMemUtil.pushStack();
+            // scores are always recorded in the raw format, and always stored in the latest
+            ByteBuffer encodedData = this.writerEncoder.encode(data, ScoreFormat.V1);
+            this.writerDigest.reset();
+            this.writerDigest.update(encodedData.duplicate());
+            ByteBuffer hashBuffer = SCMemUtil.mallocStack(8, ContentHash.SIZE_BYTES).put(this.writerDigest.digest()).flip();
+
+            this.idToHashDb.put(txn, stackIdKey(scoreId), hashBuffer);
+
+            ByteBuffer refCountBuffer = this.hashToRefCountDb.get(txn, hashBuffer);
+            int refCount = refCountBuffer == null ? 0 : refCountBuffer.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            if (refCount == 0) {
+                this.hashToDataDb.put(txn, hashBuffer, this.writerCodec.encode(encodedData, ScoreFormat.LATEST));
+            }
+            this.hashToRefCountDb.put(txn, hashBuffer, stackRefCount(refCount + 1));
+        } finally {
+            SCMemUtil.popStack();
+        }
+    }
+
+    /**
+     * Returns null if the ID doesn't belong to a segmented recording.
+     */
+    public ScoreManifest getManifest(long scoreId) {
+        this.writer.awaitWritten(scoreId);
+
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
+        try {
+            SCMemUtil.pushStack();
+            readTxn = this.readTxnPool.acquire();
+            ByteBuffer manifestBuffer = this.manifestDb.get(readTxn, stackIdKey(scoreId));
+            return manifestBuffer == null ? null : ScoreManifest.read(manifestBuffer.duplicate().order(ByteOrder.BIG_ENDIAN));
+        } finally {
+            SCMemUtil.popStack();
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+        }
     }
 
     /**
      * If the entry doesn't exist, the data field will be null.
      */
     public ScoreRequest requestScore(long scoreId) {
+        // the score could still be waiting to be written. this is pretty rare, and the writer flushes
+        // as soon as it gets anything, so waiting on it is fine.
+        this.writer.awaitWritten(scoreId);
+
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
         try {
             SCMemUtil.pushStack();
             // not in try-with-resources because returned value should close it
-            Txn<ByteBuffer> readTxn = this.dbEnv.txnRead();
-            // LMDB usually expects big endian, but because we're using direct long keys, we can keep it as native
-            ByteBuffer idBuffer = SCMemUtil.mallocStack(8, 8).putLong(scoreId).flip();
+            readTxn = this.readTxnPool.acquire();
 
-            ByteBuffer data = this.internalDb.get(readTxn, idBuffer).order(ByteOrder.BIG_ENDIAN);
-            return new ScoreRequest(data, readTxn);
+            ByteBuffer hash = this.idToHashDb.get(readTxn, stackIdKey(scoreId));
+            ByteBuffer data = null;
+            if (hash != null) {
+                // the transaction reuses the buffer it returns, so we need our own view of it
+                hash = hash.duplicate();
+                data = this.hashToDataDb.get(readTxn, hash);
+            }
+            return new ScoreRequest(scoreId, hash, data, readTxn, stamp);
+        } catch (RuntimeException e) {
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+            throw e;
         } finally {
             SCMemUtil.popStack();
         }
     }
 
+    /**
+     * Looks up all the given scores from the same snapshot with a single cursor, which is much cheaper than
+     * a request per score when serving a burst of them. The order of the data in the returned request matches
+     * the order of the given IDs, and any entry that doesn't exist will be null.
+     */
+    public ScoreBatchRequest requestScores(long... scoreIds) {
+        for (long scoreId : scoreIds) {
+            this.writer.awaitWritten(scoreId);
+        }
+
+        // visit the keys in order so the cursor walks through the tree in one direction
+        long[] sortedIds = scoreIds.clone();
+        Arrays.sort(sortedIds);
+
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
+        try {
+            SCMemUtil.pushStack();
+            readTxn = this.readTxnPool.acquire();
+            ByteBuffer idBuffer = SCMemUtil.mallocStack(8, 8);
+            Long2ObjectMap<ByteBuffer> idToDataMap = new Long2ObjectOpenHashMap<>(sortedIds.length);
+
+            try (Cursor<ByteBuffer> cursor = this.idToHashDb.openCursor(readTxn)) {
+                for (long scoreId : sortedIds) {
+                    idBuffer.clear().putLong(scoreId).flip();
+                    if (cursor.get(idBuffer, GetOp.MDB_SET_KEY)) {
+                        ByteBuffer data = this.hashToDataDb.get(readTxn, cursor.val());
+                        if (data != null) {
+                            // the transaction reuses its value buffer, so we need our own view of the data
+                            idToDataMap.put(scoreId, data.duplicate());
+                        }
+                    }
+                }
+            }
+
+            ByteBuffer[] data = new ByteBuffer[scoreIds.length];
+            for (int i = 0; i < scoreIds.length; i++) {
+                data[i] = idToDataMap.get(scoreIds[i]);
+            }
+            return new ScoreBatchRequest(scoreIds, data, readTxn, stamp);
+        } catch (RuntimeException e) {
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+            throw e;
+        } finally {
+            SCMemUtil.popStack();
+        }
+    }
+
+    /**
+     * Lists the score IDs in the database from fromId (inclusive) to toId (exclusive) in ascending order,
+     * stopping early once maxCount IDs are found. This includes segments, but not manifests.
+     */
+    public long[] listScoreIds(long fromId, long toId, int maxCount) {
+        return this.listIds(this.idToHashDb, fromId, toId, maxCount);
+    }
+
+    /**
+     * Same as {@link #listScoreIds(long, long, int)}, but only for manifests.
+     */
+    public long[] listManifestIds(long fromId, long toId, int maxCount) {
+        return this.listIds(this.manifestDb, fromId, toId, maxCount);
+    }
+
+    private long[] listIds(Dbi<ByteBuffer> dbi, long fromId, long toId, int maxCount) {
+        LongList scoreIds = new LongArrayList(maxCount);
+
+        long stamp = this.resizeLock.readLock();
+        Txn<ByteBuffer> readTxn = null;
+        try {
+            SCMemUtil.pushStack();
+            readTxn = this.readTxnPool.acquire();
+            try (Cursor<ByteBuffer> cursor = dbi.openCursor(readTxn)) {
+                boolean hasEntry = cursor.get(stackIdKey(fromId), GetOp.MDB_SET_RANGE);
+                while (hasEntry && scoreIds.size() < maxCount) {
+                    long scoreId = cursor.key().order(ByteOrder.nativeOrder()).getLong(0);
+                    if (scoreId >= toId) break;
+                    scoreIds.add(scoreId);
+                    hasEntry = cursor.next();
+                }
+            }
+        } finally {
+            SCMemUtil.popStack();
+            if (readTxn != null) this.readTxnPool.release(readTxn);
+            this.resizeLock.unlockRead(stamp);
+        }
+
+        return scoreIds.toLongArray();
+    }
+
+    /**
+     * Removes the ID, and removes the data too if nothing else points to it. Removing a manifest doesn't remove its
+     * segments, the collector picks those up once nothing references them.
+     *
+     * @return if the ID existed
+     */
     public boolean deleteScore(long scoreId) {
+        return this.deleteScores(scoreId) == 1;
+    }
+
+    /**
+     * Removes all the given IDs in one transaction, same as {@link #deleteScore(long)}.
+     *
+     * @return the amount of IDs which existed
+     */
+    public int deleteScores(long... scoreIds) {
+        for (long scoreId : scoreIds) {
+            this.writer.awaitWritten(scoreId);
+        }
+
+        return this.write(0, txn -> {
+            int deletedCount = 0;
+            for (long scoreId : scoreIds) {
+                if (this.removeScore(txn, scoreId)) deletedCount++;
+            }
+            return deletedCount;
+        });
+    }
+
+    private boolean removeScore(Txn<ByteBuffer> txn, long scoreId) {
         try {
             SCMemUtil.pushStack();
-            // LMDB usually expects big endian, but because we're using direct long keys, we can keep it as native
-            ByteBuffer idBuffer = SCMemUtil.mallocStack(8, 8).putLong(scoreId).flip();
-            return this.internalDb.delete(idBuffer);
+            ByteBuffer idKey = stackIdKey(scoreId);
+            if (this.manifestDb.delete(txn, idKey)) return true;
+
+            ByteBuffer storedHash = this.idToHashDb.get(txn, idKey);
+            if (storedHash == null) return false;
+
+            // copy the hash out before we start changing pages
+            ByteBuffer hashBuffer = SCMemUtil.mallocStack(8, ContentHash.SIZE_BYTES).put(storedHash).flip();
+            this.idToHashDb.delete(txn, idKey);
+
+            ByteBuffer refCountBuffer = this.hashToRefCountDb.get(txn, hashBuffer);
+            int refCount = refCountBuffer == null ? 0 : refCountBuffer.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            if (refCount <= 1) {
+                this.hashToDataDb.delete(txn, hashBuffer);
+                this.hashToRefCountDb.delete(txn, hashBuffer);
+            } else {
+                this.hashToRefCountDb.put(txn, hashBuffer, stackRefCount(refCount - 1));
+            }
+            return true;
         } finally {
             SCMemUtil.popStack();
         }
     }
 
+    /**
+     * Runs the action in a write transaction, which is committed if the action returns normally. If the map fills
+     * up, the transaction is aborted, the map is grown, and the whole action is retried, so it shouldn't have any
+     * side effects outside the transaction. A stack frame is pushed for the action to use.
+     */
+    private <T> T write(long bytesNeeded, Function<Txn<ByteBuffer>, T> action) {
+        this.ensureMapCapacity(bytesNeeded);
+
+        while (true) {
+            long stamp = this.resizeLock.readLock();
+            SCMemUtil.pushStack();
+            try (Txn<ByteBuffer> txn = this.dbEnv.txnWrite()) {
+                T result = action.apply(txn);
+                txn.commit();
+                return result;
+            } catch (Env.MapFullException e) {
+                // the transaction gets aborted when it's closed, so we just have to make room and try again.
+                // this has to happen after our stamp is released, so it's done below.
+                if (this.mapSize >= this.maxMapSize) throw e;
+            } finally {
+                SCMemUtil.popStack();
+                this.resizeLock.unlockRead(stamp);
+            }
+            this.growMap(this.mapSize + Math.max(bytesNeeded, this.dbEnv.stat().pageSize));
+        }
+    }
+
+    /**
+     * Grows the map ahead of time if writing the given amount of bytes would put it over the grow threshold.
+     * Free pages can be reused by LMDB, so this errs on the side of growing early rather than late.
+     */
+    private void ensureMapCapacity(long bytesNeeded) {
+        long usedBytes = (this.dbEnv.info().lastPageNumber + 1) * this.dbEnv.stat().pageSize;
+        long mapSize = this.mapSize;
+        if (usedBytes + bytesNeeded > mapSize * MAP_GROW_THRESHOLD) {
+            this.growMap(mapSize + bytesNeeded);
+        }
+    }
+
+    /**
+     * Grows the map geometrically until it can hold at least the required size, or until the max size is hit.
+     * Should never be called while the current thread holds an open transaction, otherwise it will deadlock.
+     *
+     * @return if the map is now at least the required size
+     */
+    private boolean growMap(long requiredSize) {
+        long stamp = this.resizeLock.writeLock();
+        try {
+            long currentSize = this.mapSize;
+            // another writer may have beaten us to it
+            if (currentSize >= requiredSize) return true;
+            if (currentSize >= this.maxMapSize) {
+                Recordable.LOGGER.error("Score database is full and has hit the max map size of " + this.maxMapSize + " bytes. Increase " + MAX_MAP_SIZE_KEY + " to store more scores.");
+                return false;
+            }
+
+            long pageSize = this.dbEnv.stat().pageSize;
+            long newSize = currentSize;
+            while (newSize < requiredSize) {
+                newSize = (long) Math.ceil(newSize * this.mapGrowthFactor);
+            }
+            // LMDB wants the map size to be a multiple of the page size
+            newSize = Math.min((newSize + pageSize - 1) / pageSize * pageSize, this.maxMapSize);
+
+            this.dbEnv.setMapSize(newSize);
+            this.mapSize = newSize;
+            Recordable.LOGGER.info("Grew score database map from " + currentSize + " bytes to " + newSize + " bytes");
+            return newSize >= requiredSize;
+        } finally {
+            this.resizeLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Page counts are taken from the environment and database stats, so the free page count is an
+     * approximation which also includes the pages used by LMDB's internal free list.
+     */
+    public Statistics getStatistics() {
+        long stamp = this.resizeLock.readLock();
+        try (Txn<ByteBuffer> txn = this.dbEnv.txnRead()) {
+            EnvInfo info = this.dbEnv.info();
+            Stat envStat = this.dbEnv.stat();
+            Stat idToHashStat = this.idToHashDb.stat(txn);
+            Stat hashToDataStat = this.hashToDataDb.stat(txn);
+
+            long usedPages = countPages(envStat)
+                             + countPages(this.legacyDb.stat(txn))
+                             + countPages(idToHashStat)
+                             + countPages(hashToDataStat)
+                             + countPages(this.hashToRefCountDb.stat(txn))
+                             + countPages(this.metadataDb.stat(txn))
+                             + countPages(this.manifestDb.stat(txn))
+                             + countPages(this.stagingDb.stat(txn));
+            long allocatedPages = info.lastPageNumber + 1;
+            long freePages = Math.max(allocatedPages - META_PAGE_COUNT - usedPages, 0);
+            return new Statistics(
+                    info.mapSize,
+                    envStat.pageSize,
+                    allocatedPages,
+                    usedPages,
+                    freePages,
+                    idToHashStat.entries,
+                    hashToDataStat.entries
+            );
+        } finally {
+            this.resizeLock.unlockRead(stamp);
+        }
+    }
+
+    private static long countPages(Stat stat) {
+        return stat.branchPages + stat.leafPages + stat.overflowPages;
+    }
+
+    /**
+     * LMDB usually expects big endian, but because we're using direct long keys, we can keep it as native.
+     * Has to be called with a stack frame pushed, same as the other stack helpers.
+     */
+    private static ByteBuffer stackIdKey(long scoreId) {
+        return SCMemUtil.mallocStack(8, 8).putLong(scoreId).flip();
+    }
+
+    private static ByteBuffer stackStagingKey(long sessionId, int sequence) {
+        return SCMemUtil.mallocStack(8, 12).order(ByteOrder.BIG_ENDIAN).putLong(sessionId).putInt(sequence).flip();
+    }
+
+    private static ByteBuffer stackMetadataKey(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        return SCMemUtil.mallocStack(1, keyBytes.length).put(keyBytes).flip();
+    }
+
+    private static ByteBuffer stackRefCount(int refCount) {
+        return SCMemUtil.mallocStack(4, 4).order(ByteOrder.BIG_ENDIAN).putInt(refCount).flip();
+    }
+
+    /**
+     * Waits for all queued scores to be written before closing the database.
+     */
     @Override
     public void close() {
+        this.writer.close();
+        this.writerEncoder.close();
+        this.writerCodec.close();
+        this.readTxnPool.close();
         this.dbEnv.close();
     }
 
-    public static class ScoreRequest implements AutoCloseable {
-        private final ByteBuffer data;
+    /**
+     * @param scoreCount the amount of score IDs in the database
+     * @param uniqueScoreCount the amount of distinct score data entries, after deduplication
+     */
+    /**
+     * @param scoreId what the recording is stored as, unless the session was already recovered
+     * @param finalSegmentId what the last segment is stored as, if the recording has more than one
+     */
+    record StagingRecovery(long sessionId, long scoreId, long finalSegmentId, LongConsumer onRecovered) {}
+
+    public record Statistics(long mapSize, long pageSize, long allocatedPages, long usedPages, long freePages, long scoreCount, long uniqueScoreCount) {}
+
+    /**
+     * Returns a view of the stored data if it isn't compressed, otherwise decodes it into a new buffer allocated with
+     * {@link SCMemUtil#malloc(int)}. Returns null if the data can't be decoded.
+     */
+    private static ByteBuffer decodeStoredData(long scoreId, ByteBuffer storedData) {
+        if (!ScoreCodec.needsDecoding(storedData)) {
+            return ScoreCodec.getRawView(storedData);
+        }
+
+        ByteBuffer decodedData = SCMemUtil.malloc(ScoreCodec.getDecodedSize(storedData)).order(ByteOrder.BIG_ENDIAN);
+        try {
+            ScoreCodec.decode(storedData, decodedData);
+            return decodedData.flip();
+        } catch (DataFormatException | RuntimeException e) {
+            Recordable.LOGGER.error("Unable to decode score " + scoreId + ", treating it as missing", e);
+            SCMemUtil.free(decodedData);
+            return null;
+        }
+    }
+
+    public class ScoreRequest implements AutoCloseable {
+        private final long scoreId;
+        private final ByteBuffer hash;
+        private final ByteBuffer storedData;
         private final Txn<ByteBuffer> txn;
+        private final long resizeStamp;
+        private ByteBuffer decodedData;
+        private boolean decoded;
 
-        private ScoreRequest(ByteBuffer data, Txn<ByteBuffer> txn) {
-            this.data = data;
+        private ScoreRequest(long scoreId, ByteBuffer hash, ByteBuffer storedData, Txn<ByteBuffer> txn, long resizeStamp) {
+            this.scoreId = scoreId;
+            this.hash = hash;
+            this.storedData = storedData;
             this.txn = txn;
+            this.resizeStamp = resizeStamp;
         }
 
+        /**
+         * The decoded score, in big endian. Decoding only happens the first time this is called.
+         * If the entry doesn't exist, this will return null.
+         */
         public ByteBuffer getData() {
-            return this.data;
+            if (!this.decoded) {
+                this.decoded = true;
+                if (this.storedData != null) this.decodedData = decodeStoredData(this.scoreId, this.storedData);
+            }
+            return this.decodedData;
+        }
+
+        /**
+         * The score as it's stored, starting with the {@link ScoreCodec} header.
+         * If the entry doesn't exist, this will return null.
+         */
+        public ByteBuffer getStoredData() {
+            return this.storedData;
+        }
+
+        /**
+         * The {@link ScoreFormat} version of the decoded score. Only valid if the entry exists.
+         */
+        public int getFormatVersion() {
+            return ScoreCodec.getFormatVersion(this.storedData);
+        }
+
+        /**
+         * If the entry doesn't exist, this will return null.
+         */
+        public ContentHash getContentHash() {
+            return this.hash == null ? null : ContentHash.of(this.hash);
+        }
+
+        @Override
+        public void close() {
+            if (this.decodedData != null && ScoreCodec.needsDecoding(this.storedData)) SCMemUtil.free(this.decodedData);
+            ScoreDatabase.this.readTxnPool.release(this.txn);
+            ScoreDatabase.this.resizeLock.unlockRead(this.resizeStamp);
+        }
+    }
+
+    public class ScoreBatchRequest implements AutoCloseable {
+        private final long[] scoreIds;
+        private final ByteBuffer[] storedData;
+        private final ByteBuffer[] decodedData;
+        private final Txn<ByteBuffer> txn;
+        private final long resizeStamp;
+
+        private ScoreBatchRequest(long[] scoreIds, ByteBuffer[] storedData, Txn<ByteBuffer> txn, long resizeStamp) {
+            this.scoreIds = scoreIds;
+            this.storedData = storedData;
+            this.decodedData = new ByteBuffer[storedData.length];
+            this.txn = txn;
+            this.resizeStamp = resizeStamp;
+        }
+
+        public int size() {
+            return this.scoreIds.length;
+        }
+
+        public long getScoreId(int index) {
+            return this.scoreIds[index];
+        }
+
+        /**
+         * The decoded score, in big endian. Decoding only happens the first time this is called for each index.
+         * If the entry doesn't exist, this will return null.
+         */
+        public ByteBuffer getData(int index) {
+            if (this.decodedData[index] == null && this.storedData[index] != null) {
+                this.decodedData[index] = decodeStoredData(this.scoreIds[index], this.storedData[index]);
+            }
+            return this.decodedData[index];
+        }
+
+        /**
+         * The score as it's stored, starting with the {@link ScoreCodec} header.
+         * If the entry doesn't exist, this will return null.
+         */
+        public ByteBuffer getStoredData(int index) {
+            return this.storedData[index];
+        }
+
+        /**
+         * The {@link ScoreFormat} version of the decoded score. Only valid if the entry exists.
+         */
+        public int getFormatVersion(int index) {
+            return ScoreCodec.getFormatVersion(this.storedData[index]);
         }
 
         @Override
         public void close() {
-            this.txn.close();
+            for (int i = 0; i < this.decodedData.length; i++) {
+                if (this.decodedData[i] != null && ScoreCodec.needsDecoding(this.storedData[i])) SCMemUtil.free(this.decodedData[i]);
+            }
+            ScoreDatabase.this.readTxnPool.release(this.txn);
+            ScoreDatabase.this.resizeLock.unlockRead(this.resizeStamp);
         }
     }
 }
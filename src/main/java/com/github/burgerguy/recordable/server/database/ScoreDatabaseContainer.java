@@ -1,9 +1,15 @@
 package com.github.burgerguy.recordable.server.database;
 
+import com.github.burgerguy.recordable.server.network.ScoreSender;
+
 /**
  * Holder interface to store record database on the server instance
  */
 public interface ScoreDatabaseContainer {
     ScoreDatabase getScoreDatabase();
     void setScoreDatabase(ScoreDatabase database);
+    ScoreCollector getScoreCollector();
+    void setScoreCollector(ScoreCollector collector);
+    ScoreSender getScoreSender();
+    void setScoreSender(ScoreSender sender);
 }
@@ -0,0 +1,113 @@
+package com.github.burgerguy.recordable.server.database;
+
+/**
+ * Hands out score IDs that are never reused, even after scores are deleted or the server crashes.
+ * <p>
+ * Only the upper bound of what's been handed out is persisted, and it's bumped a block at a time,
+ * so allocating an ID is O(1). If the server crashes, the rest of the last block is skipped rather
+ * than reused.
+ * <p>
+ * Allocations happen on the server thread, so the next block is reserved on the writer thread once
+ * the current one is half used, and is usually ready long before it's needed. An allocation only
+ * waits on a write if the writer falls a whole half block behind.
+ */
+public class ScoreIdAllocator {
+    public static final String NEXT_ID_KEY = "next_score_id";
+    private static final int BLOCK_SIZE = 256;
+
+    private final ScoreDatabase database;
+    /**
+     * Every ID below this has been given to a block or a range, even if it hasn't been written yet.
+     */
+    private long reservedLimit;
+    private long nextId;
+    private long blockLimit;
+    /**
+     * The block being written by the writer thread, if there is one.
+     */
+    private IdRange pendingBlock;
+    /**
+     * The block that's been written, ready for when the current one runs out.
+     */
+    private IdRange nextBlock;
+
+    /**
+     * The first block is written before this returns, because the writer thread doesn't exist yet.
+     */
+    ScoreIdAllocator(ScoreDatabase database, long persistedLimit) {
+        this.database = database;
+        this.reservedLimit = persistedLimit;
+        IdRange block = this.reserve(BLOCK_SIZE);
+        this.nextId = block.start();
+        this.blockLimit = block.end();
+    }
+
+    public synchronized long allocate() {
+        if (this.nextId == this.blockLimit) {
+            boolean interrupted = false;
+            while (this.pendingBlock != null) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+
+            // there's only no next block if the writer couldn't write it
+            IdRange block = this.nextBlock != null ? this.nextBlock : this.reserve(BLOCK_SIZE);
+            this.nextBlock = null;
+            this.nextId = block.start();
+            this.blockLimit = block.end();
+        }
+
+        long id = this.nextId++;
+        if (this.pendingBlock == null && this.nextBlock == null && this.blockLimit - this.nextId <= BLOCK_SIZE / 2) {
+            this.pendingBlock = new IdRange(this.reservedLimit, this.reservedLimit + BLOCK_SIZE);
+            this.reservedLimit = this.pendingBlock.end();
+            this.database.queueIdLimit(this.pendingBlock.end());
+        }
+        return id;
+    }
+
+    /**
+     * Called by the writer thread once the pending block has been written, or if it couldn't be. Blocks which
+     * couldn't be written are skipped.
+     */
+    synchronized void onLimitWritten(boolean written) {
+        if (written) this.nextBlock = this.pendingBlock;
+        this.pendingBlock = null;
+        this.notifyAll();
+    }
+
+    /**
+     * Every ID below this has been handed out at some point. IDs from here on can't be referenced by anything yet.
+     */
+    public synchronized long peekNextId() {
+        return this.nextId;
+    }
+
+    /**
+     * Reserves a contiguous range of IDs which won't be handed out to anyone else. This is useful for
+     * writers which need many IDs at once and don't want to go through the allocator for each one.
+     * The range is persisted on the caller's thread before this returns.
+     */
+    public synchronized IdRange reserve(int count) {
+        if (count <= 0) throw new IllegalArgumentException("Tried to reserve " + count + " score IDs");
+        long start = this.reservedLimit;
+        long end = start + count;
+        this.database.writeIdLimit(end);
+        this.reservedLimit = end;
+        return new IdRange(start, end);
+    }
+
+    /**
+     * @param start inclusive
+     * @param end exclusive
+     */
+    public record IdRange(long start, long end) {
+        public int size() {
+            return (int) (this.end - this.start);
+        }
+    }
+}
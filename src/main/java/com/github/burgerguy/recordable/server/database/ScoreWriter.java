@@ -0,0 +1,250 @@
+package com.github.burgerguy.recordable.server.database;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.annotation.Nullable;
+
+/**
+ * Single writer thread which batches writes queued since the last flush into one write transaction.
+ * This keeps LMDB write transactions off the server thread, and turns many recorders stopping in the same
+ * tick into a single commit. Writes are always applied in the order they were queued.
+ * <p>
+ * If a batch can't be written, each write in it is retried in its own transaction, so only the writes that
+ * fail on their own are lost.
+ */
+class ScoreWriter implements Closeable {
+    private static final PendingWrite SHUTDOWN_MARKER = new PendingWrite(PendingWrite.Type.SCORE, -1, 0, null);
+    /**
+     * Anything over either limit is left for the next flush, so one transaction can't grow without bound.
+     */
+    private static final int MAX_BATCH_WRITES = 256;
+    private static final long MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+    private final ScoreDatabase database;
+    private final BlockingQueue<PendingWrite> queue;
+    /**
+     * IDs which have been handed out but haven't been committed yet. Also used as the monitor
+     * for threads waiting on a score to be written.
+     */
+    private final LongSet pendingIds;
+    private final Thread thread;
+    /**
+     * Guarded by the queue.
+     */
+    private boolean closed;
+
+    ScoreWriter(ScoreDatabase database) {
+        this.database = database;
+        this.queue = new LinkedBlockingQueue<>();
+        this.pendingIds = new LongOpenHashSet();
+        this.thread = new Thread(this::run, "Recordable Score Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * The buffer is owned by the writer after this is called, and will be freed after it's committed.
+     */
+    void queueScore(long scoreId, ByteBuffer data, boolean isManifest) {
+        PendingWrite pendingWrite = new PendingWrite(isManifest ? PendingWrite.Type.MANIFEST : PendingWrite.Type.SCORE, scoreId, 0, data);
+        synchronized (this.queue) {
+            if (!this.closed) {
+                synchronized (this.pendingIds) {
+                    this.pendingIds.add(scoreId);
+                }
+                this.queue.add(pendingWrite);
+                return;
+            }
+        }
+        this.reject(pendingWrite);
+    }
+
+    /**
+     * Same as {@link #queueScore(long, ByteBuffer, boolean)}, but for a record of a recording session.
+     * Nothing waits on these, so they aren't tracked as pending.
+     */
+    void queueStagingRecord(long sessionId, int sequence, ByteBuffer data) {
+        this.queue(new PendingWrite(PendingWrite.Type.STAGING_RECORD, sessionId, sequence, data));
+    }
+
+    void queueStagingDelete(long sessionId) {
+        this.queue(new PendingWrite(PendingWrite.Type.STAGING_DELETE, sessionId, 0, null));
+    }
+
+    void queueStagingRecovery(ScoreDatabase.StagingRecovery recovery) {
+        this.queue(new PendingWrite(PendingWrite.Type.STAGING_RECOVERY, recovery.sessionId(), 0, null, recovery));
+    }
+
+    /**
+     * The ID allocator is told when it's been written, or if it couldn't be.
+     */
+    void queueIdLimit(long limit) {
+        this.queue(new PendingWrite(PendingWrite.Type.ID_LIMIT, limit, 0, null));
+    }
+
+    private void queue(PendingWrite pendingWrite) {
+        synchronized (this.queue) {
+            if (!this.closed) {
+                this.queue.add(pendingWrite);
+                return;
+            }
+        }
+        this.reject(pendingWrite);
+    }
+
+    /**
+     * Nothing would ever write or free anything queued after the writer closes, so it's freed here instead.
+     * Shouldn't be called while holding the queue, because the allocator queues while holding its own monitor.
+     */
+    private void reject(PendingWrite pendingWrite) {
+        Recordable.LOGGER.error("Tried to queue a " + pendingWrite.type() + " write for " + pendingWrite.id() + " after the database was closed, it will be lost");
+        if (pendingWrite.data() != null) SCMemUtil.free(pendingWrite.data());
+        // the allocator falls back to writing the limit itself
+        if (pendingWrite.type() == PendingWrite.Type.ID_LIMIT) this.database.getIdAllocator().onLimitWritten(false);
+    }
+
+    /**
+     * Blocks until the given score has been committed. Returns immediately if the score isn't queued.
+     */
+    void awaitWritten(long scoreId) {
+        synchronized (this.pendingIds) {
+            boolean interrupted = false;
+            while (this.pendingIds.contains(scoreId)) {
+                try {
+                    this.pendingIds.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            PendingWrite pendingWrite;
+            try {
+                pendingWrite = this.queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            long batchBytes = 0;
+            while (pendingWrite != null) {
+                if (pendingWrite == SHUTDOWN_MARKER) {
+                    // close() stops anything else from being queued after the marker
+                    running = false;
+                    break;
+                }
+                batch.add(pendingWrite);
+                if (pendingWrite.data() != null) batchBytes += pendingWrite.data().remaining();
+                if (batch.size() >= MAX_BATCH_WRITES || batchBytes >= MAX_BATCH_BYTES) break;
+                pendingWrite = this.queue.poll();
+            }
+
+            this.flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        if (batch.isEmpty()) return;
+
+        boolean batchWritten = false;
+        try {
+            this.database.writePending(batch);
+            batchWritten = true;
+        } catch (Throwable t) {
+            if (batch.size() == 1) {
+                Recordable.LOGGER.error("Unable to write queued " + batch.get(0).type() + " write for " + batch.get(0).id() + ", it will be lost", t);
+            } else {
+                Recordable.LOGGER.warn("Unable to write " + batch.size() + " queued writes to the database at once, writing them one at a time", t);
+            }
+        }
+
+        try {
+            for (PendingWrite pendingWrite : batch) {
+                boolean written = batchWritten || (batch.size() > 1 && this.writeAlone(pendingWrite));
+                if (pendingWrite.type() == PendingWrite.Type.ID_LIMIT) this.database.getIdAllocator().onLimitWritten(written);
+            }
+        } finally {
+            for (PendingWrite pendingWrite : batch) {
+                if (pendingWrite.data() != null) SCMemUtil.free(pendingWrite.data());
+            }
+
+            synchronized (this.pendingIds) {
+                for (PendingWrite pendingWrite : batch) {
+                    if (pendingWrite.isTracked()) this.pendingIds.remove(pendingWrite.id());
+                }
+                this.pendingIds.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes don't change their buffers, so they can be retried after the batch they were in fails.
+     */
+    private boolean writeAlone(PendingWrite pendingWrite) {
+        try {
+            this.database.writePending(List.of(pendingWrite));
+            return true;
+        } catch (Throwable t) {
+            Recordable.LOGGER.error("Unable to write queued " + pendingWrite.type() + " write for " + pendingWrite.id() + ", it will be lost", t);
+            return false;
+        }
+    }
+
+    /**
+     * Writes everything still in the queue and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this.queue) {
+            if (this.closed) return;
+            this.closed = true;
+            this.queue.add(SHUTDOWN_MARKER);
+        }
+        boolean interrupted = false;
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * For staging writes, the ID is the session ID. For ID limit writes, the ID is the limit. Only staging recoveries
+     * have a recovery.
+     */
+    record PendingWrite(Type type, long id, int sequence, ByteBuffer data, @Nullable ScoreDatabase.StagingRecovery recovery) {
+        PendingWrite(Type type, long id, int sequence, ByteBuffer data) {
+            this(type, id, sequence, data, null);
+        }
+
+        boolean isTracked() {
+            return this.type == Type.SCORE || this.type == Type.MANIFEST;
+        }
+
+        enum Type {
+            SCORE,
+            MANIFEST,
+            STAGING_RECORD,
+            STAGING_DELETE,
+            STAGING_RECOVERY,
+            ID_LIMIT
+        }
+    }
+}
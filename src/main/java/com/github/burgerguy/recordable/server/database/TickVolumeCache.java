@@ -1,54 +1,66 @@
 package com.github.burgerguy.recordable.server.database;
 
 import com.github.burgerguy.recordable.shared.score.ScoreConstants;
+import com.github.burgerguy.recordable.shared.score.ScoreFormat;
+import com.github.burgerguy.recordable.shared.score.ScoreVisitor;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class TickVolumeCache {
     private final Long2ObjectMap<float[]> idToVolumesMap;
+    /**
+     * Scores with the same content share the same volumes, so they only have to be computed once.
+     */
+    private final Object2ObjectMap<ContentHash, float[]> hashToVolumesMap;
     private final ScoreDatabase scoreDatabase;
 
     public TickVolumeCache(ScoreDatabase scoreDatabase) {
         this.idToVolumesMap = new Long2ObjectOpenHashMap<>();
+        this.hashToVolumesMap = new Object2ObjectOpenHashMap<>();
         this.scoreDatabase = scoreDatabase;
     }
 
+    /**
+     * If the score doesn't exist, this will return null.
+     */
     public float[] getTickVolumes(long scoreId) {
-        return this.idToVolumesMap.computeIfAbsent(scoreId, id -> {
-            try(ScoreDatabase.ScoreRequest rawScoreData = this.scoreDatabase.requestScore(id)) {
-                ByteBuffer buffer = rawScoreData.getData();
-
-                float[] volumeArray = new float[ScoreConstants.MAX_TICKS];
-                int tick = 0;
-                while (buffer.hasRemaining()) {
-                    tick = Short.toUnsignedInt(buffer.getShort());
-                    int soundCount = Byte.toUnsignedInt(buffer.get());
-                    float loudestVolume = 0.0F;
-
-                    // skip if tick has no sounds
-                    if (soundCount > 0) {
-                        buffer.position(buffer.position() + 16); // advance past id and relative pos first
-                        for (int i = 0; i < soundCount - 1; i++) { // loop through all but last sound
-                            float soundVolume = buffer.getFloat();
-                            if (soundVolume > loudestVolume) {
-                                loudestVolume = soundVolume;
-                            }
-                            buffer.position(buffer.position() + ScoreConstants.SOUND_SIZE_BYTES - 4); // negate 4 because we just read a float
-                        }
-                        // final sound, need to bump position less
-                        float soundVolume = buffer.getFloat();
-                        if (soundVolume > loudestVolume) {
-                            loudestVolume = soundVolume;
-                        }
-                        buffer.position(buffer.position() + 4);
-
-                        volumeArray[tick] = loudestVolume;
-                    }
-                }
-                return Arrays.copyOf(volumeArray, tick + 1);
+        float[] cachedVolumes = this.idToVolumesMap.get(scoreId);
+        if (cachedVolumes != null) return cachedVolumes;
+
+        try (ScoreDatabase.ScoreRequest rawScoreData = this.scoreDatabase.requestScore(scoreId)) {
+            ByteBuffer buffer = rawScoreData.getData();
+            if (buffer == null) return null;
+
+            float[] volumes = this.hashToVolumesMap.computeIfAbsent(rawScoreData.getContentHash(), h -> computeTickVolumes(buffer, rawScoreData.getFormatVersion()));
+            this.idToVolumesMap.put(scoreId, volumes);
+            return volumes;
+        }
+    }
+
+    private static float[] computeTickVolumes(ByteBuffer buffer, int formatVersion) {
+        LoudestVolumeVisitor visitor = new LoudestVolumeVisitor();
+        ScoreFormat.read(buffer, formatVersion, visitor);
+        return Arrays.copyOf(visitor.volumeArray, visitor.currentTick + 1);
+    }
+
+    private static class LoudestVolumeVisitor implements ScoreVisitor {
+        private final float[] volumeArray = new float[ScoreConstants.MAX_TICKS];
+        private int currentTick;
+
+        @Override
+        public void visitTickGroup(int tick, int soundCount) {
+            this.currentTick = tick;
+        }
+
+        @Override
+        public void visitSound(int paletteIndex, float relX, float relY, float relZ, float volume, float pitch) {
+            if (volume > this.volumeArray[this.currentTick]) {
+                this.volumeArray[this.currentTick] = volume;
             }
-        });
+        }
     }
 }
@@ -0,0 +1,547 @@
+package com.github.burgerguy.recordable.server.network;
+
+import com.github.burgerguy.recordable.server.database.ContentHash;
+import com.github.burgerguy.recordable.server.database.ScoreDatabase;
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
+import com.github.burgerguy.recordable.shared.score.ScoreCodec;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongPriorityQueue;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import javax.annotation.Nullable;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import org.quiltmc.qsl.networking.api.PacketByteBufs;
+import org.quiltmc.qsl.networking.api.ServerPlayNetworking;
+
+/**
+ * Sends scores to players in chunks, so no score is ever too big for a single packet. Each player only has so many
+ * bytes in flight at once, and the client acknowledges every chunk it gets, which lets the next ones be sent.
+ * Scores are sent one after another, in the order they were read.
+ * <p>
+ * Requests are read from the database on a small pool of worker threads, so neither the network threads nor the
+ * server thread ever wait on a read. The pool size is the global limit on reads at once, and each player can only
+ * have a few of their requests being read at once, so one player can't hold up everyone else.
+ * <p>
+ * A request for a score the player is already waiting on is ignored. Scores that have been read are kept ready to
+ * send for a while, and a request for a score that's already being read waits for that read, so a score everyone
+ * asks for at once is only read and decoded once. Sending is limited to so many bytes per second, both for each
+ * player and for the whole server, and whatever goes over is sent on a later tick.
+ * <p>
+ * Every score and manifest is sent with its content hash. A request can include the hash of a copy the client already
+ * has, and if it still matches, the client is told to use its copy instead of being sent the score again. Score IDs
+ * can be reused if the world is rolled back, so the hash is the only thing the client can trust its copy by.
+ * <p>
+ * Chunk format:
+ * 8 byte score ID
+ * 4 byte sequence number, starting at 0
+ * first chunk only:
+ * 4 byte total size, {@link #MISSING_SIZE} if the score doesn't exist, or {@link #UNCHANGED_SIZE} if the client's
+ * copy matches
+ * if the score is sent:
+ * 1 byte {@link com.github.burgerguy.recordable.shared.score.ScoreFormat} version
+ * (var int length prefixed) content hash
+ * (rest) score bytes
+ * <p>
+ * Manifest format:
+ * 8 byte score ID
+ * (var int length prefixed) content hash
+ * (rest) manifest bytes
+ */
+public class ScoreSender implements Closeable {
+    public static final String CHUNK_SIZE_KEY = "network.chunkSizeBytes";
+    public static final String MAX_BYTES_IN_FLIGHT_KEY = "network.maxBytesInFlight";
+    public static final String WORKER_THREADS_KEY = "network.workerThreads";
+    public static final String MAX_CONCURRENT_REQUESTS_PER_PLAYER_KEY = "network.maxConcurrentRequestsPerPlayer";
+    public static final String MAX_PENDING_REQUESTS_PER_PLAYER_KEY = "network.maxPendingRequestsPerPlayer";
+    public static final String MAX_BYTES_PER_SECOND_PER_PLAYER_KEY = "network.maxBytesPerSecondPerPlayer";
+    public static final String MAX_BYTES_PER_SECOND_KEY = "network.maxBytesPerSecond";
+    public static final String PREPARED_CACHE_BYTES_KEY = "network.preparedCacheBytes";
+    public static final int MISSING_SIZE = -1;
+    public static final int UNCHANGED_SIZE = -2;
+
+    private static final int DEFAULT_CHUNK_SIZE_BYTES = 32 * 1024;
+    private static final int DEFAULT_MAX_BYTES_IN_FLIGHT = 256 * 1024;
+    private static final int DEFAULT_WORKER_THREADS = 2;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_PLAYER = 2;
+    private static final int DEFAULT_MAX_PENDING_REQUESTS_PER_PLAYER = 256;
+    private static final long DEFAULT_MAX_BYTES_PER_SECOND_PER_PLAYER = 1024 * 1024;
+    private static final long DEFAULT_MAX_BYTES_PER_SECOND = 16 * 1024 * 1024;
+    private static final long DEFAULT_PREPARED_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    /**
+     * Vanilla won't send a custom payload bigger than 1 MiB, and the chunk header has to fit too.
+     */
+    private static final int MAX_CHUNK_SIZE_BYTES = 1024 * 1024 - 1024;
+    /**
+     * Roughly what a packet costs on top of its payload, so packets without one aren't free.
+     */
+    private static final int PACKET_OVERHEAD_BYTES = 64;
+
+    private final ScoreDatabase database;
+    private final int chunkSizeBytes;
+    private final int maxBytesInFlight;
+    private final int maxConcurrentRequestsPerPlayer;
+    private final int maxPendingRequestsPerPlayer;
+    private final long maxBytesPerSecondPerPlayer;
+    private final long preparedCacheBytes;
+    private final TokenBucket serverBucket;
+    private final ExecutorService workers;
+    /**
+     * Also used as the monitor for itself. Each player's transfers are guarded by their own monitor.
+     */
+    private final Object2ObjectMap<UUID, PlayerTransfers> playerTransfers;
+    /**
+     * Least recently used first. Also used as the monitor for itself, the scores being read, and the cache size.
+     */
+    private final Long2ObjectLinkedOpenHashMap<PreparedScore> preparedScores;
+    private final Long2ObjectMap<CompletableFuture<PreparedScore>> preparingScores;
+    private long preparedScoresBytes;
+
+    public ScoreSender(ScoreDatabase database, RecordableConfig config) {
+        this.database = database;
+        this.chunkSizeBytes = Math.min(Math.max(config.getInt(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE_BYTES), 1024), MAX_CHUNK_SIZE_BYTES);
+        this.maxBytesInFlight = Math.max(config.getInt(MAX_BYTES_IN_FLIGHT_KEY, DEFAULT_MAX_BYTES_IN_FLIGHT), this.chunkSizeBytes);
+        this.maxConcurrentRequestsPerPlayer = Math.max(config.getInt(MAX_CONCURRENT_REQUESTS_PER_PLAYER_KEY, DEFAULT_MAX_CONCURRENT_REQUESTS_PER_PLAYER), 1);
+        this.maxPendingRequestsPerPlayer = Math.max(config.getInt(MAX_PENDING_REQUESTS_PER_PLAYER_KEY, DEFAULT_MAX_PENDING_REQUESTS_PER_PLAYER), 1);
+        // anything less than a chunk a second would starve big scores
+        this.maxBytesPerSecondPerPlayer = Math.max(config.getLong(MAX_BYTES_PER_SECOND_PER_PLAYER_KEY, DEFAULT_MAX_BYTES_PER_SECOND_PER_PLAYER), this.chunkSizeBytes);
+        this.serverBucket = new TokenBucket(Math.max(config.getLong(MAX_BYTES_PER_SECOND_KEY, DEFAULT_MAX_BYTES_PER_SECOND), this.chunkSizeBytes));
+        this.preparedCacheBytes = Math.max(config.getLong(PREPARED_CACHE_BYTES_KEY, DEFAULT_PREPARED_CACHE_BYTES), 0);
+        this.playerTransfers = new Object2ObjectOpenHashMap<>();
+        this.preparedScores = new Long2ObjectLinkedOpenHashMap<>();
+        this.preparingScores = new Long2ObjectOpenHashMap<>();
+
+        int workerThreads = Math.max(config.getInt(WORKER_THREADS_KEY, DEFAULT_WORKER_THREADS), 1);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "Recordable Score Sender " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the score to be read and sent to the player. Returns immediately, and can be called from any thread.
+     *
+     * @param cachedHash the content hash of the copy the client already has, if it has one
+     */
+    public void request(ServerPlayer player, long scoreId, @Nullable byte[] cachedHash) {
+        PlayerTransfers transfers = this.getTransfers(player);
+        synchronized (transfers) {
+            // already on its way
+            if (transfers.requestedIds.contains(scoreId)) return;
+            if (transfers.pendingRequests.size() >= this.maxPendingRequestsPerPlayer) {
+                Recordable.LOGGER.warn("Player " + player + " has too many pending score requests, ignoring request for score " + scoreId);
+                return;
+            }
+            transfers.requestedIds.add(scoreId);
+            if (cachedHash != null) transfers.cachedHashes.put(scoreId, cachedHash);
+            transfers.pendingRequests.enqueue(scoreId);
+            this.scheduleReads(transfers);
+        }
+    }
+
+    /**
+     * Starts reading the player's pending requests, up to the per player limit. Has to be called while holding the
+     * player's transfers.
+     */
+    private void scheduleReads(PlayerTransfers transfers) {
+        while (!transfers.removed
+               && transfers.activeReads < this.maxConcurrentRequestsPerPlayer
+               && !transfers.pendingRequests.isEmpty()) {
+            long scoreId = transfers.pendingRequests.dequeueLong();
+            try {
+                this.workers.execute(() -> this.read(transfers, scoreId));
+            } catch (RejectedExecutionException e) {
+                // the server is stopping
+                return;
+            }
+            transfers.activeReads++;
+        }
+    }
+
+    /**
+     * Runs on a worker thread.
+     */
+    private void read(PlayerTransfers transfers, long scoreId) {
+        boolean queued = false;
+        try {
+            byte[] cachedHash;
+            synchronized (transfers) {
+                cachedHash = transfers.cachedHashes.remove(scoreId);
+            }
+            PreparedScore preparedScore = this.prepare(scoreId);
+            boolean unchanged = cachedHash != null && preparedScore.contentHash() != null && Arrays.equals(cachedHash, preparedScore.contentHash());
+            synchronized (transfers) {
+                if (transfers.removed) return;
+                if (preparedScore.isManifest() && !unchanged) {
+                    this.sendManifest(transfers, scoreId, preparedScore);
+                } else {
+                    transfers.queue.addLast(new Transfer(scoreId, preparedScore, unchanged));
+                    queued = true;
+                    this.pump(transfers);
+                }
+            }
+        } catch (Throwable t) {
+            Recordable.LOGGER.error("Unable to send score " + scoreId + " to player " + transfers.player, t);
+        } finally {
+            synchronized (transfers) {
+                // queued transfers stay requested until their last chunk is sent
+                if (!queued) transfers.requestedIds.remove(scoreId);
+                transfers.activeReads--;
+                this.scheduleReads(transfers);
+            }
+        }
+    }
+
+    /**
+     * Returns the score ready to be sent, only reading it if it isn't already prepared or being read by another
+     * worker.
+     */
+    private PreparedScore prepare(long scoreId) {
+        CompletableFuture<PreparedScore> future;
+        synchronized (this.preparedScores) {
+            PreparedScore preparedScore = this.preparedScores.getAndMoveToLast(scoreId);
+            if (preparedScore != null) return preparedScore;
+
+            future = this.preparingScores.get(scoreId);
+            if (future == null) this.preparingScores.put(scoreId, new CompletableFuture<>());
+        }
+        if (future != null) return future.join();
+
+        PreparedScore preparedScore;
+        try {
+            preparedScore = this.readPrepared(scoreId);
+        } catch (Throwable t) {
+            synchronized (this.preparedScores) {
+                future = this.preparingScores.remove(scoreId);
+            }
+            future.completeExceptionally(t);
+            throw t;
+        }
+
+        // score IDs are never reused while the server is running and stored scores never change, so nothing prepared
+        // can go stale
+        synchronized (this.preparedScores) {
+            future = this.preparingScores.remove(scoreId);
+            if (this.preparedScores.putAndMoveToLast(scoreId, preparedScore) == null) {
+                this.preparedScoresBytes += preparedScore.getSizeBytes();
+            }
+            while (this.preparedScoresBytes > this.preparedCacheBytes && !this.preparedScores.isEmpty()) {
+                this.preparedScoresBytes -= this.preparedScores.removeFirst().getSizeBytes();
+            }
+        }
+        future.complete(preparedScore);
+        return preparedScore;
+    }
+
+    private PreparedScore readPrepared(long scoreId) {
+        // long recordings are sent as a manifest, and the client requests each segment when it needs it
+        ScoreManifest scoreManifest = this.database.getManifest(scoreId);
+        if (scoreManifest != null) {
+            ByteBuffer manifestBuffer = ByteBuffer.allocate(scoreManifest.getSizeBytes());
+            scoreManifest.write(manifestBuffer);
+            manifestBuffer.flip();
+            // manifests aren't content addressed, but they're tiny, so they're just hashed here
+            MessageDigest digest = ContentHash.createDigest();
+            digest.update(manifestBuffer.duplicate());
+            return new PreparedScore(true, Unpooled.wrappedBuffer(manifestBuffer), 0, digest.digest());
+        }
+
+        try (ScoreDatabase.ScoreRequest scoreRequest = this.database.requestScore(scoreId)) {
+            ByteBuffer storedData = scoreRequest.getStoredData();
+            if (storedData == null) {
+                Recordable.LOGGER.warn("Requested invalid score id " + scoreId);
+                return new PreparedScore(false, null, 0, null);
+            }
+
+            // decoded straight out of the map into the only copy that's ever made, see PreparedScore
+            byte[] decodedData = new byte[ScoreCodec.getDecodedSize(storedData)];
+            ScoreCodec.decode(storedData, ByteBuffer.wrap(decodedData));
+            return new PreparedScore(false, Unpooled.wrappedBuffer(decodedData), scoreRequest.getFormatVersion(), scoreRequest.getContentHash().getBytes());
+        } catch (DataFormatException e) {
+            Recordable.LOGGER.error("Unable to decode score " + scoreId + ", treating it as missing", e);
+            return new PreparedScore(false, null, 0, null);
+        }
+    }
+
+    /**
+     * Manifests are tiny, so they skip the queue, but they still count against the rate limits. Has to be called
+     * while holding the player's transfers.
+     */
+    private void sendManifest(PlayerTransfers transfers, long scoreId, PreparedScore preparedScore) {
+        int cost = preparedScore.data().readableBytes() + PACKET_OVERHEAD_BYTES;
+        transfers.bucket.consume(cost);
+        this.serverBucket.consume(cost);
+
+        FriendlyByteBuf headerBuffer = PacketByteBufs.create();
+        headerBuffer.writeLong(scoreId);
+        headerBuffer.writeByteArray(preparedScore.contentHash());
+        FriendlyByteBuf packetBuffer = new FriendlyByteBuf(Unpooled.wrappedBuffer(headerBuffer, preparedScore.data().slice()));
+        ServerPlayNetworking.send(transfers.player, Recordable.SEND_SCORE_MANIFEST_ID, packetBuffer);
+    }
+
+    /**
+     * Called when the client acknowledges a chunk. Chunks are always acknowledged in the order they were sent.
+     */
+    public void onChunkAcknowledged(ServerPlayer player, long scoreId, int sequence) {
+        PlayerTransfers transfers = this.getTransfers(player);
+        synchronized (transfers) {
+            SentChunk sentChunk = transfers.inFlight.peekFirst();
+            if (sentChunk == null || sentChunk.scoreId() != scoreId || sentChunk.sequence() != sequence) {
+                Recordable.LOGGER.warn("Player " + player + " acknowledged chunk " + sequence + " of score " + scoreId + ", which wasn't the next one in flight");
+                return;
+            }
+            transfers.inFlight.pollFirst();
+            transfers.bytesInFlight -= sentChunk.sizeBytes();
+            this.pump(transfers);
+        }
+    }
+
+    /**
+     * Continues transfers that ran out of bytes to send. Should be called on the server thread every tick.
+     */
+    public void tick() {
+        List<PlayerTransfers> allTransfers;
+        synchronized (this.playerTransfers) {
+            if (this.playerTransfers.isEmpty()) return;
+            allTransfers = new ObjectArrayList<>(this.playerTransfers.values());
+        }
+        for (PlayerTransfers transfers : allTransfers) {
+            synchronized (transfers) {
+                if (!transfers.queue.isEmpty()) this.pump(transfers);
+            }
+        }
+    }
+
+    /**
+     * Drops everything that hasn't been sent to the player yet.
+     */
+    public void onDisconnect(ServerPlayer player) {
+        PlayerTransfers transfers;
+        synchronized (this.playerTransfers) {
+            transfers = this.playerTransfers.remove(player.getUUID());
+        }
+        if (transfers != null) {
+            // reads which are already running finish, but nothing else is sent
+            synchronized (transfers) {
+                transfers.removed = true;
+                transfers.pendingRequests.clear();
+                transfers.requestedIds.clear();
+                transfers.cachedHashes.clear();
+                transfers.queue.clear();
+            }
+        }
+    }
+
+    private PlayerTransfers getTransfers(ServerPlayer player) {
+        PlayerTransfers transfers;
+        synchronized (this.playerTransfers) {
+            transfers = this.playerTransfers.computeIfAbsent(player.getUUID(), unused -> new PlayerTransfers(this.maxBytesPerSecondPerPlayer));
+        }
+        synchronized (transfers) {
+            // the player object is replaced when they respawn
+            transfers.player = player;
+        }
+        return transfers;
+    }
+
+    /**
+     * Sends chunks until the player has as many bytes in flight as they're allowed, or until they or the server are
+     * out of bytes for now. Has to be called while holding the player's transfers.
+     */
+    private void pump(PlayerTransfers transfers) {
+        while (transfers.bytesInFlight < this.maxBytesInFlight) {
+            Transfer transfer = transfers.queue.peekFirst();
+            if (transfer == null) return;
+
+            // the client already has it, so only the header is sent
+            ByteBuf data = transfer.unchanged ? null : transfer.preparedScore.data();
+            int chunkSize = data == null ? 0 : Math.min(data.readableBytes() - transfer.offset, this.chunkSizeBytes);
+            int cost = chunkSize + PACKET_OVERHEAD_BYTES;
+            // the player's bucket is checked first, so a player who's out doesn't use up the server's bytes
+            if (!transfers.bucket.hasTokens() || !this.serverBucket.tryConsume(cost)) return;
+            transfers.bucket.consume(cost);
+
+            FriendlyByteBuf headerBuffer = PacketByteBufs.create();
+            headerBuffer.writeLong(transfer.scoreId);
+            headerBuffer.writeInt(transfer.nextSequence);
+            if (transfer.nextSequence == 0) {
+                if (transfer.unchanged) {
+                    headerBuffer.writeInt(UNCHANGED_SIZE);
+                } else if (data == null) {
+                    headerBuffer.writeInt(MISSING_SIZE);
+                } else {
+                    headerBuffer.writeInt(data.readableBytes());
+                    headerBuffer.writeByte(transfer.preparedScore.formatVersion());
+                    headerBuffer.writeByteArray(transfer.preparedScore.contentHash());
+                }
+            }
+            // the chunk is a view of the score, so nothing is copied until the packet is encoded
+            FriendlyByteBuf packetBuffer = chunkSize == 0 ? headerBuffer : new FriendlyByteBuf(Unpooled.wrappedBuffer(headerBuffer, data.slice(transfer.offset, chunkSize)));
+
+            transfers.inFlight.addLast(new SentChunk(transfer.scoreId, transfer.nextSequence, chunkSize));
+            transfers.bytesInFlight += chunkSize;
+            transfer.offset += chunkSize;
+            transfer.nextSequence++;
+            if (data == null || transfer.offset == data.readableBytes()) {
+                transfers.queue.pollFirst();
+                transfers.requestedIds.remove(transfer.scoreId);
+            }
+
+            ServerPlayNetworking.send(transfers.player, Recordable.SEND_SCORE_ID, packetBuffer);
+        }
+    }
+
+    /**
+     * Stops reading, and waits for the reads that are running, so the database can be closed.
+     */
+    @Override
+    public void close() {
+        this.workers.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (!this.workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    Recordable.LOGGER.warn("Score sender workers didn't stop in time");
+                }
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static class PlayerTransfers {
+        private final TokenBucket bucket;
+        private final LongPriorityQueue pendingRequests = new LongArrayFIFOQueue();
+        /**
+         * Every score that's pending, being read, or still has chunks left to send.
+         */
+        private final LongSet requestedIds = new LongOpenHashSet();
+        /**
+         * Hashes sent with requests which haven't started being read yet.
+         */
+        private final Long2ObjectMap<byte[]> cachedHashes = new Long2ObjectOpenHashMap<>();
+        private final Deque<Transfer> queue = new ArrayDeque<>();
+        private final Deque<SentChunk> inFlight = new ArrayDeque<>();
+        private ServerPlayer player;
+        private int activeReads;
+        private boolean removed;
+        private int bytesInFlight;
+
+        private PlayerTransfers(long bytesPerSecond) {
+            this.bucket = new TokenBucket(bytesPerSecond);
+        }
+    }
+
+    private static class Transfer {
+        private final long scoreId;
+        private final PreparedScore preparedScore;
+        private final boolean unchanged;
+        private int offset;
+        private int nextSequence;
+
+        private Transfer(long scoreId, PreparedScore preparedScore, boolean unchanged) {
+            this.scoreId = scoreId;
+            this.preparedScore = preparedScore;
+            this.unchanged = unchanged;
+        }
+    }
+
+    /**
+     * A score or manifest that's ready to be sent to anyone. The data is on the heap and never written to after it's
+     * read, so any number of transfers can send slices of it at once without releasing anything. If the data is
+     * null, the score doesn't exist.
+     * <p>
+     * The data isn't a view of the mapped database. A transfer lasts until the client acknowledges every chunk, and
+     * the read transaction a view needs would hold the resize lock for that whole time, so the map couldn't grow. It
+     * would also pin the pages being read, so the database couldn't reuse them. Copying the score out once, which
+     * decoding has to do anyway for compressed scores, lets the transaction end before anything is sent.
+     */
+    private record PreparedScore(boolean isManifest, @Nullable ByteBuf data, int formatVersion, @Nullable byte[] contentHash) {
+        private long getSizeBytes() {
+            return PACKET_OVERHEAD_BYTES + (this.data == null ? 0 : this.data.readableBytes() + ContentHash.SIZE_BYTES);
+        }
+    }
+
+    private record SentChunk(long scoreId, int sequence, int sizeBytes) {}
+
+    /**
+     * Holds up to a second's worth of bytes. It's allowed to go into debt, so a chunk bigger than what's left can
+     * still be sent, and nothing else is sent until the debt is paid off.
+     */
+    private static class TokenBucket {
+        private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final long bytesPerSecond;
+        private long tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.tokens = bytesPerSecond;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private synchronized boolean hasTokens() {
+            this.refill();
+            return this.tokens > 0;
+        }
+
+        private synchronized boolean tryConsume(long bytes) {
+            this.refill();
+            if (this.tokens <= 0) return false;
+            this.tokens -= bytes;
+            return true;
+        }
+
+        private synchronized void consume(long bytes) {
+            this.refill();
+            this.tokens -= bytes;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            // the bucket is full after a second anyway, and the multiplication could overflow after a long wait
+            long elapsedNanos = Math.min(now - this.lastRefillNanos, NANOS_PER_SECOND);
+            long newTokens = elapsedNanos * this.bytesPerSecond / NANOS_PER_SECOND;
+            if (newTokens <= 0) return;
+            if (this.tokens + newTokens >= this.bytesPerSecond) {
+                this.tokens = this.bytesPerSecond;
+                this.lastRefillNanos = now;
+            } else {
+                this.tokens += newTokens;
+                // only move forward by the time that was paid out, so nothing is lost to rounding
+                this.lastRefillNanos += newTokens * NANOS_PER_SECOND / this.bytesPerSecond;
+            }
+        }
+    }
+}
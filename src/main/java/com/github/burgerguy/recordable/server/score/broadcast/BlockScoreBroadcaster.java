@@ -28,7 +28,7 @@ public class BlockScoreBroadcaster extends ScoreBroadcaster {
     @Override
     protected void writePlayPacket(FriendlyByteBuf buffer) {
         buffer.writeLong(this.scoreId);
-        buffer.writeShort(this.currentTick);
+        buffer.writeInt(this.currentTick);
         buffer.writeInt(this.playId);
         buffer.writeBlockPos(this.blockPos);
     }
@@ -16,7 +16,7 @@ public abstract class ScoreBroadcaster {
 
     private final Set<ServerPlayer> sentTargets;
     protected long scoreId;
-    protected short currentTick;
+    protected int currentTick;
     protected int playId;
     private boolean paused;
     private boolean broadcasting;
@@ -37,7 +37,7 @@ public class BlockEntityScoreRecorder extends ScoreRecorder {
 
     @Override
     public boolean isInRange(double x, double y, double z, float volume) {
-        double radius = volume > 1.0F ? 16.0D * volume : 16.0;
+        double radius = getSoundRange(volume);
         double relX = x - this.getXPos();
         double relY = y - this.getYPos();
         double relZ = z - this.getZPos();
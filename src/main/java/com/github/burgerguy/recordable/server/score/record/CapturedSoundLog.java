@@ -0,0 +1,88 @@
+package com.github.burgerguy.recordable.server.score.record;
+
+import java.util.Arrays;
+import net.minecraft.core.Registry;
+import net.minecraft.sounds.SoundEvent;
+
+/**
+ * Every sound captured by a {@link ScoreRecorderRegistry} in the current tick, stored once no matter how many recorders
+ * hear it. Recorders only keep the indices of the sounds they heard, and write them out relative to themselves when
+ * they tick. It's cleared once every recorder has ticked.
+ */
+public class CapturedSoundLog {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] soundIds;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private float[] volumes;
+    private float[] pitches;
+    private int size;
+
+    public CapturedSoundLog() {
+        this.soundIds = new int[INITIAL_CAPACITY];
+        this.xs = new double[INITIAL_CAPACITY];
+        this.ys = new double[INITIAL_CAPACITY];
+        this.zs = new double[INITIAL_CAPACITY];
+        this.volumes = new float[INITIAL_CAPACITY];
+        this.pitches = new float[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the index of the added sound.
+     */
+    public int add(SoundEvent sound, double x, double y, double z, float volume, float pitch) {
+        if (this.size == this.soundIds.length) this.grow();
+        int index = this.size++;
+        this.soundIds[index] = Registry.SOUND_EVENT.getId(sound); // registry needs to be synced with server
+        this.xs[index] = x;
+        this.ys[index] = y;
+        this.zs[index] = z;
+        this.volumes[index] = volume;
+        this.pitches[index] = pitch;
+        return index;
+    }
+
+    private void grow() {
+        int capacity = this.soundIds.length * 2;
+        this.soundIds = Arrays.copyOf(this.soundIds, capacity);
+        this.xs = Arrays.copyOf(this.xs, capacity);
+        this.ys = Arrays.copyOf(this.ys, capacity);
+        this.zs = Arrays.copyOf(this.zs, capacity);
+        this.volumes = Arrays.copyOf(this.volumes, capacity);
+        this.pitches = Arrays.copyOf(this.pitches, capacity);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getSoundId(int index) {
+        return this.soundIds[index];
+    }
+
+    public double getX(int index) {
+        return this.xs[index];
+    }
+
+    public double getY(int index) {
+        return this.ys[index];
+    }
+
+    public double getZ(int index) {
+        return this.zs[index];
+    }
+
+    public float getVolume(int index) {
+        return this.volumes[index];
+    }
+
+    public float getPitch(int index) {
+        return this.pitches[index];
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+}
@@ -27,6 +27,13 @@ public class EntityScoreRecorder extends ScoreRecorder {
         return this.entity.getZ();
     }
 
+    @Override
+    public void tick() {
+        // entities can turn at any time
+        this.invalidateRotation();
+        super.tick();
+    }
+
     @Override
     public Quaternion createRotation() {
         return new Quaternion(this.entity.getXRot(), this.entity.getYRot(), 0.0f, true);
@@ -34,7 +41,7 @@ public class EntityScoreRecorder extends ScoreRecorder {
 
     @Override
     public boolean isInRange(double x, double y, double z, float volume) {
-        double radius = volume > 1.0F ? 16.0D * volume : 16.0;
+        double radius = getSoundRange(volume);
         double relX = x - this.getXPos();
         double relY = y - this.getYPos();
         double relZ = z - this.getZPos();
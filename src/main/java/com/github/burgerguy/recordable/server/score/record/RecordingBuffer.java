@@ -0,0 +1,132 @@
+package com.github.burgerguy.recordable.server.score.record;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.score.ScoreConstants;
+import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Growable buffer for a score that's being recorded. It's made of fixed size pages taken from a shared pool, so a
+ * recorder only holds as much native memory as it has actually recorded. Nothing written through
+ * {@link #reserve(int)} is ever split between pages, so tick headers can still be written to after the fact.
+ */
+public class RecordingBuffer implements Closeable {
+    public static final String MAX_POOLED_PAGES_KEY = "recording.maxPooledPages";
+    public static final int PAGE_SIZE_BYTES = 8192;
+
+    private static final int DEFAULT_MAX_POOLED_PAGES = 256; // 2 MiB
+    private static final int MAX_POOLED_PAGES = Math.max(Recordable.CONFIG.getInt(MAX_POOLED_PAGES_KEY, DEFAULT_MAX_POOLED_PAGES), 0);
+    /**
+     * Pages that aren't used by any recorder. Also used as the monitor for itself.
+     */
+    private static final Deque<ByteBuffer> PAGE_POOL = new ArrayDeque<>();
+
+    private final List<ByteBuffer> pages;
+    private int fullPagesSize;
+    private boolean closed;
+
+    public RecordingBuffer() {
+        this.pages = new ObjectArrayList<>();
+    }
+
+    /**
+     * Returns the page to write to, with at least the given amount of bytes remaining. If that would make the score
+     * bigger than {@link ScoreConstants#MAX_RECORD_SIZE_BYTES}, null is returned instead.
+     */
+    @Nullable
+    public ByteBuffer reserve(int bytes) {
+        if (this.closed) throw new IllegalStateException("Recording buffer used after being closed");
+        if (bytes > PAGE_SIZE_BYTES) throw new IllegalArgumentException("Can't reserve " + bytes + " bytes in a page of size " + PAGE_SIZE_BYTES);
+        if (this.size() + bytes > ScoreConstants.MAX_RECORD_SIZE_BYTES) return null;
+
+        ByteBuffer currentPage = this.pages.isEmpty() ? null : this.pages.get(this.pages.size() - 1);
+        if (currentPage == null || currentPage.remaining() < bytes) {
+            if (currentPage != null) this.fullPagesSize += currentPage.position();
+            currentPage = takePage();
+            this.pages.add(currentPage);
+        }
+        return currentPage;
+    }
+
+    /**
+     * The amount of bytes written so far.
+     */
+    public int size() {
+        return this.pages.isEmpty() ? 0 : this.fullPagesSize + this.pages.get(this.pages.size() - 1).position();
+    }
+
+    /**
+     * Copies everything that's been written into a single big endian buffer, which has to be freed with
+     * {@link SCMemUtil#free(java.nio.Buffer)}, and closes this buffer.
+     */
+    public ByteBuffer gather() {
+        if (this.closed) throw new IllegalStateException("Recording buffer used after being closed");
+        // never malloc 0 bytes, the result of that isn't consistent between allocators
+        ByteBuffer gathered = SCMemUtil.malloc(Math.max(this.size(), 1)).order(ByteOrder.BIG_ENDIAN);
+        for (ByteBuffer page : this.pages) {
+            gathered.put(page.flip());
+        }
+        this.close();
+        return gathered.flip();
+    }
+
+    /**
+     * Copies the bytes from the first offset up to the second into the destination, without changing anything here.
+     */
+    public void copyRange(int from, int to, ByteBuffer destination) {
+        if (this.closed) throw new IllegalStateException("Recording buffer used after being closed");
+        if (from < 0 || to > this.size() || from > to) throw new IndexOutOfBoundsException("Range " + from + " to " + to + " out of bounds for size " + this.size());
+        int pageStart = 0;
+        for (ByteBuffer page : this.pages) {
+            // pages are only ever written up to their position
+            int pageEnd = pageStart + page.position();
+            if (pageEnd > from) {
+                int start = Math.max(from, pageStart) - pageStart;
+                int end = Math.min(to, pageEnd) - pageStart;
+                destination.put(page.slice(start, end - start));
+            }
+            if (pageEnd >= to) break;
+            pageStart = pageEnd;
+        }
+    }
+
+    private static ByteBuffer takePage() {
+        ByteBuffer page;
+        synchronized (PAGE_POOL) {
+            page = PAGE_POOL.pollFirst();
+        }
+        // order is big endian because LMDB likes it
+        return page != null ? page : SCMemUtil.malloc(PAGE_SIZE_BYTES).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static void returnPage(ByteBuffer page) {
+        synchronized (PAGE_POOL) {
+            if (PAGE_POOL.size() < MAX_POOLED_PAGES) {
+                PAGE_POOL.addFirst(page.clear());
+                return;
+            }
+        }
+        SCMemUtil.free(page);
+    }
+
+    /**
+     * Returns all pages to the pool without keeping anything that was written.
+     */
+    @Override
+    public void close() {
+        if (this.closed) return;
+        this.closed = true;
+        for (ByteBuffer page : this.pages) {
+            returnPage(page);
+        }
+        this.pages.clear();
+        this.fullPagesSize = 0;
+    }
+}
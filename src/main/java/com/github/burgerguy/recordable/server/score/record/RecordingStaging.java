@@ -0,0 +1,169 @@
+package com.github.burgerguy.recordable.server.score.record;
+
+import com.github.burgerguy.recordable.server.database.ScoreDatabase;
+import com.github.burgerguy.recordable.shared.Recordable;
+import com.github.burgerguy.recordable.shared.score.ScoreConstants;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
+import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Reads and writes the records {@link ScoreRecorder} stages while recording.
+ * <p>
+ * Record formats, all big endian:
+ * <p>
+ * data record, for ticks finished since the last checkpoint:
+ * 1 byte type (value of 0)
+ * 4 byte current tick, relative to the start of the segment
+ * (rest) V1 bytes
+ * <p>
+ * segment record, for a segment that's been queued. Data records after it belong to the next segment:
+ * 1 byte type (value of 1)
+ * 8 byte segment score ID
+ * 4 byte segment start tick
+ * 4 byte next segment start tick
+ * <p>
+ * recovered record, which replaces everything else once the session's been recovered. It's kept until the collector
+ * finds nothing references the session anymore, so a recorder that's loaded again before it's saved with the
+ * recovered score gets the same score:
+ * 1 byte type (value of 2)
+ * 8 byte recovered score ID
+ */
+public final class RecordingStaging {
+    public static final int RECOVERED_RECORD_SIZE_BYTES = 9;
+
+    private static final byte DATA_RECORD = 0;
+    private static final byte SEGMENT_RECORD = 1;
+    private static final byte RECOVERED_RECORD = 2;
+    private static final int DATA_HEADER_SIZE_BYTES = 5;
+    private static final int SEGMENT_RECORD_SIZE_BYTES = 17;
+
+    private RecordingStaging() {
+    }
+
+    /**
+     * Returns a buffer with the header written and room for the given amount of V1 bytes, which the database frees
+     * once it's written.
+     */
+    static ByteBuffer createDataRecord(int currentTick, int dataSize) {
+        return SCMemUtil.malloc(DATA_HEADER_SIZE_BYTES + dataSize).order(ByteOrder.BIG_ENDIAN)
+                .put(DATA_RECORD)
+                .putInt(currentTick);
+    }
+
+    static ByteBuffer createSegmentRecord(long segmentId, int startTick, int nextStartTick) {
+        return SCMemUtil.malloc(SEGMENT_RECORD_SIZE_BYTES).order(ByteOrder.BIG_ENDIAN)
+                .put(SEGMENT_RECORD)
+                .putLong(segmentId)
+                .putInt(startTick)
+                .putInt(nextStartTick)
+                .flip();
+    }
+
+    /**
+     * Returns every score ID the session's records mention, so they can be kept from being collected. That's the
+     * segments of a session that hasn't been recovered yet, or the recovered score of one that has.
+     */
+    public static long[] getScoreIds(ScoreDatabase database, long sessionId) {
+        LongList scoreIds = new LongArrayList();
+        for (ByteBuffer record : database.readStagingRecords(sessionId)) {
+            if (record.remaining() == SEGMENT_RECORD_SIZE_BYTES && record.get(0) == SEGMENT_RECORD) {
+                scoreIds.add(record.getLong(1));
+            } else if (record.remaining() == RECOVERED_RECORD_SIZE_BYTES && record.get(0) == RECOVERED_RECORD) {
+                scoreIds.add(record.getLong(1));
+            }
+        }
+        return scoreIds.toLongArray();
+    }
+
+    /**
+     * Writes a recovered record for the score to the buffer, and flips it.
+     */
+    public static ByteBuffer writeRecoveredRecord(ByteBuffer buffer, long scoreId) {
+        return buffer.put(RECOVERED_RECORD).putLong(scoreId).flip();
+    }
+
+    /**
+     * Turns everything that was staged for a session into a finished recording, ending on the last tick that was
+     * checkpointed. Only the database should call this, on its writer thread, once everything queued for the session
+     * has been written.
+     *
+     * @param scoreId the ID to store the recording under
+     * @param finalSegmentId the ID to store the last segment under, if the recording has more than one
+     * @return the ID of the recovered score, which is the ID it was first recovered as if the session was already
+     * recovered, or -1 if nothing was staged
+     */
+    public static long recover(List<ByteBuffer> records, long sessionId, long scoreId, long finalSegmentId, RecoveryOutput output) {
+        if (records.isEmpty()) return -1;
+
+        LongList segmentIds = new LongArrayList();
+        IntList segmentStartTicks = new IntArrayList();
+        // data for the segment that was being recorded
+        List<ByteBuffer> currentData = new ObjectArrayList<>();
+        int currentStartTick = 0;
+        int currentTick = 0;
+        for (ByteBuffer record : records) {
+            byte type = record.get();
+            if (type == RECOVERED_RECORD && record.remaining() == RECOVERED_RECORD_SIZE_BYTES - 1) {
+                // everything else was removed when it was recovered
+                return record.getLong();
+            } else if (type == SEGMENT_RECORD && record.remaining() == SEGMENT_RECORD_SIZE_BYTES - 1) {
+                segmentIds.add(record.getLong());
+                segmentStartTicks.add(record.getInt());
+                currentStartTick = record.getInt();
+                // the segment holds everything that was checkpointed for it
+                currentData.clear();
+                currentTick = 0;
+            } else if (type == DATA_RECORD && record.remaining() >= DATA_HEADER_SIZE_BYTES - 1) {
+                currentTick = record.getInt();
+                currentData.add(record);
+            } else {
+                Recordable.LOGGER.warn("Skipping unknown staged record of type " + type + " in session " + sessionId);
+            }
+        }
+
+        int dataSize = ScoreConstants.TICK_HEADER_SIZE_BYTES;
+        for (ByteBuffer data : currentData) {
+            dataSize += data.remaining();
+        }
+        ByteBuffer segment = SCMemUtil.malloc(dataSize).order(ByteOrder.BIG_ENDIAN);
+        try {
+            for (ByteBuffer data : currentData) {
+                segment.put(data);
+            }
+            // final tick marker
+            segment.putShort((short) currentTick).put((byte) 0).flip();
+
+            if (segmentIds.isEmpty()) {
+                output.putScore(scoreId, segment);
+            } else {
+                // the segments and the manifest are written in the same transaction, so they don't need pinning
+                output.putScore(finalSegmentId, segment);
+                segmentIds.add(finalSegmentId);
+                segmentStartTicks.add(currentStartTick);
+                output.putManifest(scoreId, new ScoreManifest(segmentIds.toLongArray(), segmentStartTicks.toIntArray(), currentStartTick + currentTick));
+            }
+        } finally {
+            SCMemUtil.free(segment);
+        }
+
+        Recordable.LOGGER.info("Recovered recording from staging session " + sessionId + " as score " + scoreId);
+        return scoreId;
+    }
+
+    /**
+     * Where a recovered recording is written. Neither method keeps the buffers it's given.
+     */
+    public interface RecoveryOutput {
+        void putScore(long scoreId, ByteBuffer data);
+
+        void putManifest(long scoreId, ScoreManifest manifest);
+    }
+}
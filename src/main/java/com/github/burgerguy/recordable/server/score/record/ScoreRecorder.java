@@ -1,51 +1,94 @@
 package com.github.burgerguy.recordable.server.score.record;
 
 import com.github.burgerguy.recordable.server.database.ScoreDatabase;
+import com.github.burgerguy.recordable.shared.Recordable;
 import com.github.burgerguy.recordable.shared.score.ScoreConstants;
-import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import com.github.burgerguy.recordable.shared.score.ScoreFormat;
+import com.github.burgerguy.recordable.shared.score.ScoreManifest;
 import com.mojang.math.Quaternion;
-import com.mojang.math.Vector3f;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import javax.annotation.Nullable;
 import net.minecraft.core.Registry;
 import net.minecraft.sounds.SoundEvent;
 
 /**
- * byte format:
- *
- * per tick:
- * option 1:
- * 2 bytes tick no. (unsigned)
- * 1 byte sound count (unsigned)
- * (count * 24) byte sound list
- * option 2 (final tick):
- * 2 bytes tick no. (unsigned)
- * 1 byte sound count (value of 0)
- *
- * per sound:
- * 4 byte id (unsigned)
- * 4 byte float relative x pos
- * 4 byte float relative y pos
- * 4 byte float relative z pos
- * 4 byte float volume
- * 4 byte float pitch
- *
- * if no final tick is provided, the final tick is the last tick with sounds played
+ * Records in the V1 format described in {@link ScoreFormat}, which is converted to the latest format when stored.
+ * <p>
+ * Whenever the current score runs out of ticks or space, it's queued as a segment and recording continues in a new
+ * one, so recordings can be as long as they need to be without holding more than one segment in memory. Recordings
+ * with more than one segment are stored with a {@link ScoreManifest}.
+ * <p>
+ * Every few seconds, the ticks finished since the last checkpoint are appended to a staging session in the database,
+ * along with a record of each segment that's queued, so {@link RecordingStaging} can recover the recording if the
+ * server stops before it does.
+ * <p>
+ * Sounds captured through a {@link ScoreRecorderRegistry} are only remembered by their index in its
+ * {@link CapturedSoundLog} until the recorder ticks, and are then written all at once, so capturing a sound costs the
+ * same no matter how many recorders hear it.
  */
 // TODO: add good equals and hashcode methods
 public abstract class ScoreRecorder implements Closeable {
+    public static final String MAX_SEGMENTS_KEY = "recording.maxSegments";
+    public static final String CHECKPOINT_SECONDS_KEY = "recording.checkpointSeconds";
+    private static final int DEFAULT_MAX_SEGMENTS = 1024;
+    private static final int DEFAULT_CHECKPOINT_SECONDS = 5;
+
     private final ScoreDatabase database;
     private final OnStopCallback onStopCallback;
 
-    private Quaternion currentRotation;
-    private ByteBuffer rawScoreBuffer;
-    private ByteBuffer tickHeaderPointer;
-    private short currentTick;
-    private byte currentTickSoundCount;
-    private boolean hasTicked;
+    /**
+     * Row major, cached until the rotation is invalidated, so nothing has to be allocated per sound.
+     */
+    private final float[] rotationMatrix;
+    private boolean rotationValid;
+    private RecordingBuffer recordingBuffer;
+    /**
+     * The page the current tick's header is in. It's written to with absolute puts.
+     */
+    private ByteBuffer tickHeaderPage;
+    private int tickHeaderOffset;
+    /**
+     * Where the current tick's header starts in the whole segment. Everything before it is finished.
+     */
+    private int tickHeaderStart;
+    /**
+     * Relative to the start of the current segment.
+     */
+    private int currentTick;
+    private int currentTickSoundCount;
+    /**
+     * Indices in the registry's log of the sounds heard this tick which haven't been written yet.
+     */
+    private final IntList capturedSoundIndices;
+    /**
+     * Writing a sound can stop the recorder when it runs out of segments, which writes the captured sounds again.
+     */
+    private boolean writingCapturedSounds;
+    private final int maxSegments;
+    private final LongList segmentIds;
+    private final IntList segmentStartTicks;
+    private int segmentStartTick;
+    /**
+     * In ticks, 0 if checkpoints are disabled.
+     */
+    private final int checkpointInterval;
+    private long sessionId = -1;
+    private int stagingSequence;
+    private int checkpointedBytes;
+    private int ticksSinceCheckpoint;
     private boolean closed;
     private boolean recording;
+    /**
+     * Set by the registry this recorder is in, so it can keep track of which recorders are recording.
+     */
+    @Nullable
+    ScoreRecorderRegistry registry;
+    int activeIndex = -1;
 
 
     /**
@@ -54,85 +97,267 @@ public abstract class ScoreRecorder implements Closeable {
     public ScoreRecorder(ScoreDatabase database, OnStopCallback onStopCallback) {
         this.database = database;
         this.onStopCallback = onStopCallback;
+        this.rotationMatrix = new float[9];
+        this.maxSegments = Math.max(Recordable.CONFIG.getInt(MAX_SEGMENTS_KEY, DEFAULT_MAX_SEGMENTS), 1);
+        this.segmentIds = new LongArrayList();
+        this.segmentStartTicks = new IntArrayList();
+        this.capturedSoundIndices = new IntArrayList();
+        this.checkpointInterval = Math.max(Recordable.CONFIG.getInt(CHECKPOINT_SECONDS_KEY, DEFAULT_CHECKPOINT_SECONDS), 0) * 20;
     }
 
     public abstract double getXPos();
     public abstract double getYPos();
     public abstract double getZPos();
+    /**
+     * Only called when the rotation has been invalidated with {@link #invalidateRotation()}, or before the first sound.
+     */
     public abstract Quaternion createRotation();
 
     public abstract boolean isInRange(double x, double y, double z, float volume);
 
+    /**
+     * The farthest a sound with the given volume can be heard from, which is the same as in vanilla.
+     */
+    public static double getSoundRange(float volume) {
+        return volume > 1.0F ? 16.0D * volume : 16.0;
+    }
+
+    /**
+     * Should be called whenever the value returned by {@link #createRotation()} would change.
+     */
+    public void invalidateRotation() {
+        this.rotationValid = false;
+    }
+
+    private void updateRotationMatrix() {
+        Quaternion rotation = this.createRotation();
+        float i = rotation.i();
+        float j = rotation.j();
+        float k = rotation.k();
+        float r = rotation.r();
+        float[] m = this.rotationMatrix;
+        // same as Vector3f.transform(Quaternion) for unit quaternions
+        m[0] = 1.0F - 2.0F * (j * j + k * k);
+        m[1] = 2.0F * (i * j - k * r);
+        m[2] = 2.0F * (i * k + j * r);
+        m[3] = 2.0F * (i * j + k * r);
+        m[4] = 1.0F - 2.0F * (i * i + k * k);
+        m[5] = 2.0F * (j * k - i * r);
+        m[6] = 2.0F * (i * k - j * r);
+        m[7] = 2.0F * (j * k + i * r);
+        m[8] = 1.0F - 2.0F * (i * i + j * j);
+        this.rotationValid = true;
+    }
+
     public boolean isRecording() {
         return this.recording;
     }
 
     private void setRecording(boolean recording) {
+        if (this.recording == recording) return;
         this.recording = recording;
+        if (this.registry != null) this.registry.onRecordingChanged(this);
     }
 
     /**
-     * Starts the recording process and allocates the needed memory.
+     * Starts the recording process. Memory is only taken from the page pool as the score grows.
      */
     public void start() {
         if (this.isRecording()) throw new IllegalStateException("Recorder started while recording");
         this.setRecording(true);
 
-        // free after storing in DB
-        // order is big endian because LMDB likes it
-        this.rawScoreBuffer = SCMemUtil.malloc(ScoreConstants.MAX_RECORD_SIZE_BYTES).order(ByteOrder.BIG_ENDIAN);
+        if (this.checkpointInterval > 0) {
+            this.sessionId = this.database.openStagingSession();
+            this.stagingSequence = 0;
+            this.ticksSinceCheckpoint = 0;
+        }
+        this.startSegment(0);
+    }
+
+    /**
+     * The staging session the recording is checkpointed to, or -1 if there isn't one.
+     */
+    public long getSessionId() {
+        return this.sessionId;
+    }
+
+    private void startSegment(int startTick) {
+        this.segmentStartTick = startTick;
+        this.currentTick = 0;
+        this.currentTickSoundCount = 0;
+        this.checkpointedBytes = 0;
+        this.recordingBuffer = new RecordingBuffer();
+        // sounds can be recorded before the first tick, so the header is needed right away. it always fits.
+        this.reserveTickHeader(this.recordingBuffer.reserve(ScoreConstants.TICK_HEADER_SIZE_BYTES));
+    }
+
+    /**
+     * Finishes the current tick and gathers everything in the current segment. If no sounds were played on the
+     * current tick, this also marks it as the final tick.
+     */
+    private ByteBuffer finishSegment() {
+        this.writeTickHeader();
+        ByteBuffer segment = this.recordingBuffer.gather();
+        this.recordingBuffer = null;
+        this.tickHeaderPage = null;
+        return segment;
+    }
+
+    /**
+     * Queues the current segment and continues in a new one, starting the given amount of ticks after the current
+     * tick. If the recording already has as many segments as it can, it's stopped instead.
+     *
+     * @return if recording can continue
+     */
+    private boolean startNextSegment(int tickOffset) {
+        if (this.segmentIds.size() + 1 >= this.maxSegments) {
+            this.stop();
+            return false;
+        }
+
+        int nextStartTick = this.segmentStartTick + this.currentTick + tickOffset;
+        long segmentId = this.database.queueSegment(this.finishSegment());
+        this.segmentStartTicks.add(this.segmentStartTick);
+        this.segmentIds.add(segmentId);
+        if (this.sessionId != -1) {
+            ByteBuffer record = RecordingStaging.createSegmentRecord(segmentId, this.segmentStartTick, nextStartTick);
+            this.database.queueStagingRecord(this.sessionId, this.stagingSequence++, record);
+        }
+        this.startSegment(nextStartTick);
+        return true;
     }
 
     /**
      * Stops the recording process and calls the stop callback with the record id.
-     * This also stores the recording in the database and frees the allocated memory.
+     * This also gathers the recording into one buffer and queues it to be stored in the database, which frees it after.
      */
     public void stop() {
         if (!this.isRecording()) {
             throw new IllegalStateException("Recorder stopped while not recording");
         } else { // why tf do i need this else here??? wtf ij???
+            this.writeCapturedSounds();
+            // running out of segments while writing them already stopped it
+            if (!this.isRecording()) return;
             this.setRecording(false);
 
-            // add blank final tick if no sounds were played on it, and we have enough room
-            if (this.currentTickSoundCount == 0 && this.rawScoreBuffer.remaining() >= ScoreConstants.TICK_HEADER_SIZE_BYTES) {
-                this.tickHeaderPointer.putShort(this.currentTick);
-                this.tickHeaderPointer.put(this.currentTickSoundCount);
+            // the database frees the buffers once they've been written
+            long id;
+            if (this.segmentIds.isEmpty()) {
+                id = this.database.queueScore(this.finishSegment());
+            } else {
+                int finalTick = this.segmentStartTick + this.currentTick;
+                this.segmentStartTicks.add(this.segmentStartTick);
+                this.segmentIds.add(this.database.queueSegment(this.finishSegment()));
+                id = this.database.queueManifest(new ScoreManifest(this.segmentIds.toLongArray(), this.segmentStartTicks.toIntArray(), finalTick));
+                this.segmentIds.clear();
+                this.segmentStartTicks.clear();
             }
 
-            this.currentTick = 0;
-            this.currentTickSoundCount = 0;
-            this.hasTicked = false;
-
-            long id = this.database.storeScore(this.rawScoreBuffer.flip());
-            SCMemUtil.free(this.rawScoreBuffer);
-            this.rawScoreBuffer = null;
-            this.tickHeaderPointer = null;
-
+            // the score is queued before the staged data is removed, so there's always one of them
+            this.closeSession(true);
             this.onStopCallback.onStop(this, id);
         }
     }
 
+    private void closeSession(boolean discard) {
+        if (this.sessionId == -1) return;
+        this.database.closeStagingSession(this.sessionId, discard);
+        this.sessionId = -1;
+    }
+
+    /**
+     * Appends every tick finished since the last checkpoint to the staging session. This happens on its own every
+     * few seconds, but should also be done when whatever holds the session ID is saved.
+     */
+    public void checkpoint() {
+        if (this.sessionId == -1 || !this.isRecording()) return;
+        ByteBuffer record = RecordingStaging.createDataRecord(this.currentTick, this.tickHeaderStart - this.checkpointedBytes);
+        this.recordingBuffer.copyRange(this.checkpointedBytes, this.tickHeaderStart, record);
+        this.database.queueStagingRecord(this.sessionId, this.stagingSequence++, record.flip());
+        this.checkpointedBytes = this.tickHeaderStart;
+        this.ticksSinceCheckpoint = 0;
+    }
+
     /**
      * Only mixins will call this. You probably don't want to call it manually.
      */
     public void tick() {
-        this.currentRotation = this.createRotation();
-
-        if (this.currentTickSoundCount > 0) {
-            this.tickHeaderPointer.putShort(this.currentTick);
-            this.tickHeaderPointer.put(this.currentTickSoundCount);
+        this.writeCapturedSounds();
+        // writing the sounds could have filled up the last segment
+        if (!this.isRecording()) return;
+
+        if (this.currentTick >= ScoreConstants.MAX_TICKS) {
+            // tick numbers are unsigned shorts, so the next tick has to go in a new segment
+            this.startNextSegment(1);
+            return;
         }
 
-        // keep a pointer so we can write to the previous tick
-        if (!this.hasTicked || this.currentTickSoundCount > 0) {
-            if (this.rawScoreBuffer.remaining() < ScoreConstants.TICK_HEADER_SIZE_BYTES) this.stop();
-            this.tickHeaderPointer = SCMemUtil.slice(this.rawScoreBuffer, 0, ScoreConstants.TICK_HEADER_SIZE_BYTES);
-            this.rawScoreBuffer.position(this.rawScoreBuffer.position() + 3);
-            this.hasTicked = true;
+        // keep a pointer so we can write to the previous tick. empty ticks reuse the same header.
+        if (this.currentTickSoundCount > 0) {
+            this.writeTickHeader();
+            ByteBuffer page = this.recordingBuffer.reserve(ScoreConstants.TICK_HEADER_SIZE_BYTES);
+            if (page == null) {
+                this.startNextSegment(1);
+                return;
+            }
+            this.reserveTickHeader(page);
         }
 
         this.currentTickSoundCount = 0;
         this.currentTick++;
+
+        if (this.sessionId != -1 && ++this.ticksSinceCheckpoint >= this.checkpointInterval) {
+            this.checkpoint();
+        }
+    }
+
+    private void reserveTickHeader(ByteBuffer page) {
+        // the page's position hasn't moved yet, so this is where the header starts
+        this.tickHeaderStart = this.recordingBuffer.size();
+        this.tickHeaderPage = page;
+        this.tickHeaderOffset = page.position();
+        page.position(this.tickHeaderOffset + ScoreConstants.TICK_HEADER_SIZE_BYTES);
+    }
+
+    private void writeTickHeader() {
+        this.tickHeaderPage.putShort(this.tickHeaderOffset, (short) this.currentTick);
+        this.tickHeaderPage.put(this.tickHeaderOffset + 2, (byte) this.currentTickSoundCount);
+    }
+
+    /**
+     * Called by the registry when this recorder hears a sound that's in its log.
+     */
+    void captureSound(int logIndex) {
+        // the tick header can't count any higher, and the client can't play that many sounds at once anyway
+        if (this.currentTickSoundCount + this.capturedSoundIndices.size() >= ScoreConstants.MAX_SOUNDS_PER_TICK) return;
+        this.capturedSoundIndices.add(logIndex);
+    }
+
+    /**
+     * Writes every sound captured since the last tick, with the recorder's current position and rotation.
+     */
+    void writeCapturedSounds() {
+        if (this.capturedSoundIndices.isEmpty() || this.writingCapturedSounds) return;
+        this.writingCapturedSounds = true;
+        if (this.registry != null) {
+            CapturedSoundLog log = this.registry.getCapturedSounds();
+            double recorderX = this.getXPos();
+            double recorderY = this.getYPos();
+            double recorderZ = this.getZPos();
+            for (int i = 0; i < this.capturedSoundIndices.size() && this.isRecording(); i++) {
+                int index = this.capturedSoundIndices.getInt(i);
+                this.writeSound(
+                        log.getSoundId(index),
+                        (float) (log.getX(index) - recorderX),
+                        (float) (log.getY(index) - recorderY),
+                        (float) (log.getZ(index) - recorderZ),
+                        log.getVolume(index),
+                        log.getPitch(index)
+                );
+            }
+        }
+        this.capturedSoundIndices.clear();
+        this.writingCapturedSounds = false;
     }
 
     /**
@@ -140,41 +365,67 @@ public abstract class ScoreRecorder implements Closeable {
      */
     public void recordSound(SoundEvent sound, double x, double y, double z, float volume, float pitch) {
         if (!this.isRecording()) throw new IllegalStateException("Tried to record sound while not recording");
+        // keep the order the sounds were heard in
+        this.writeCapturedSounds();
+        if (!this.isRecording()) return;
+        this.writeSound(
+                Registry.SOUND_EVENT.getId(sound), // registry needs to be synced with server
+                (float) (x - this.getXPos()),
+                (float) (y - this.getYPos()),
+                (float) (z - this.getZPos()),
+                volume,
+                pitch
+        );
+    }
 
-        if (this.rawScoreBuffer.remaining() < ScoreConstants.SOUND_SIZE_BYTES) this.stop();
+    /**
+     * Takes the position relative to the recorder, before it's rotated.
+     */
+    private void writeSound(int soundId, float relX, float relY, float relZ, float volume, float pitch) {
+        if (this.currentTickSoundCount >= ScoreConstants.MAX_SOUNDS_PER_TICK) return;
+
+        ByteBuffer page = this.recordingBuffer.reserve(ScoreConstants.SOUND_SIZE_BYTES);
+        if (page == null) {
+            // the rest of this tick goes in the next segment
+            if (!this.startNextSegment(0)) return;
+            page = this.recordingBuffer.reserve(ScoreConstants.SOUND_SIZE_BYTES);
+        }
 
-        this.rawScoreBuffer.putInt(Registry.SOUND_EVENT.getId(sound)); // sound ID, registry needs to be synced with server
+        page.putInt(soundId);
 
         // rotate around recorder to compensate for orientation
-        Vector3f newPos = new Vector3f((float) (x - this.getXPos()), (float) (y - this.getYPos()), (float) (z - this.getZPos()));
-        newPos.transform(this.currentRotation);
+        if (!this.rotationValid) this.updateRotationMatrix();
+        float[] m = this.rotationMatrix;
 
         // relative pos to sound source from recording location
-        this.rawScoreBuffer.putFloat(newPos.x());
-        this.rawScoreBuffer.putFloat(newPos.y());
-        this.rawScoreBuffer.putFloat(newPos.z());
+        page.putFloat(m[0] * relX + m[1] * relY + m[2] * relZ);
+        page.putFloat(m[3] * relX + m[4] * relY + m[5] * relZ);
+        page.putFloat(m[6] * relX + m[7] * relY + m[8] * relZ);
 
-        this.rawScoreBuffer.putFloat(volume);
-        this.rawScoreBuffer.putFloat(pitch);
+        page.putFloat(volume);
+        page.putFloat(pitch);
 
-        if (this.currentTickSoundCount == (byte) ScoreConstants.MAX_SOUNDS_PER_TICK
-            || this.currentTick == (byte) ScoreConstants.MAX_TICKS
-            || this.rawScoreBuffer.remaining() <= 0) {
-            this.stop();
-        } else {
-            this.currentTickSoundCount++;
-        }
+        this.currentTickSoundCount++;
     }
 
     /**
-     * This immediately removes the potentially staging score in memory.
+     * This immediately removes the potentially staging score in memory. Segments which were already queued are left
+     * for the collector, and so is the staging session, so the recording can still be recovered if whatever holds the
+     * session ID was saved.
      */
     @Override
     public void close() {
+        this.closeSession(false);
+        this.capturedSoundIndices.clear();
         this.setRecording(false);
-        if (this.rawScoreBuffer != null) SCMemUtil.free(this.rawScoreBuffer);
-        this.rawScoreBuffer = null;
-        this.tickHeaderPointer = null;
+        if (!this.segmentIds.isEmpty()) {
+            this.database.releaseSegments(this.segmentIds.toLongArray());
+            this.segmentIds.clear();
+            this.segmentStartTicks.clear();
+        }
+        if (this.recordingBuffer != null) this.recordingBuffer.close();
+        this.recordingBuffer = null;
+        this.tickHeaderPage = null;
         this.closed = true;
     }
 
@@ -1,23 +1,93 @@
 package com.github.burgerguy.recordable.server.score.record;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import net.minecraft.core.SectionPos;
 import net.minecraft.sounds.SoundEvent;
+import net.minecraft.util.Mth;
 
+/**
+ * Recorders which are recording are kept in a dense list, and in a loose grid of chunk sections, so a sound only has
+ * to be checked against the recorders in the sections it can reach. Recorders move in and out of both when they start
+ * and stop, so idle recorders are never touched while ticking or capturing sounds.
+ * <p>
+ * Recorders can stop themselves while they're being ticked or are recording a sound, so the active list and the
+ * section lists are always iterated backwards, which makes removing the current element safe.
+ * <p>
+ * Each captured sound is put in the {@link CapturedSoundLog} once, and recorders which hear it only keep its index.
+ */
 public class ScoreRecorderRegistry {
+    /**
+     * Recorders are only moved between sections once per tick, so anything that moves has a bit of leeway.
+     */
+    private static final double LOOSE_MARGIN_BLOCKS = 4.0;
+
     private final Set<ScoreRecorder> recorders;
+    private final List<ScoreRecorder> activeRecorders;
+    private final Long2ObjectMap<List<ScoreRecorder>> sectionToRecorders;
+    private final Object2LongMap<ScoreRecorder> recorderToSection;
+    private final CapturedSoundLog capturedSounds;
 
     public ScoreRecorderRegistry() {
         this.recorders = new ObjectOpenHashSet<>();
+        this.activeRecorders = new ObjectArrayList<>();
+        this.sectionToRecorders = new Long2ObjectOpenHashMap<>();
+        this.recorderToSection = new Object2LongOpenHashMap<>();
+        this.capturedSounds = new CapturedSoundLog();
     }
 
     public void add(ScoreRecorder recorder) {
+        if (recorder.registry != null) throw new IllegalStateException("Recorder is already in a registry");
         this.recorders.add(recorder);
+        recorder.registry = this;
+        if (recorder.isRecording()) this.activate(recorder);
     }
 
     public void remove(ScoreRecorder recorder) {
+        if (recorder.registry != this) return;
         this.recorders.remove(recorder);
+        // the captured sounds are only in this registry's log
+        if (recorder.isRecording()) recorder.writeCapturedSounds();
+        this.deactivate(recorder);
+        recorder.registry = null;
+    }
+
+    /**
+     * Called by recorders in this registry whenever they start or stop recording.
+     */
+    void onRecordingChanged(ScoreRecorder recorder) {
+        if (recorder.isRecording()) {
+            this.activate(recorder);
+        } else {
+            this.deactivate(recorder);
+        }
+    }
+
+    private void activate(ScoreRecorder recorder) {
+        if (recorder.activeIndex != -1) return;
+        recorder.activeIndex = this.activeRecorders.size();
+        this.activeRecorders.add(recorder);
+        this.updateSection(recorder);
+    }
+
+    private void deactivate(ScoreRecorder recorder) {
+        int index = recorder.activeIndex;
+        if (index == -1) return;
+        // swap with the last one, so nothing else has to move
+        ScoreRecorder lastRecorder = this.activeRecorders.remove(this.activeRecorders.size() - 1);
+        if (lastRecorder != recorder) {
+            this.activeRecorders.set(index, lastRecorder);
+            lastRecorder.activeIndex = index;
+        }
+        recorder.activeIndex = -1;
+        this.removeFromSection(recorder);
     }
 
     /**
@@ -28,23 +98,97 @@ public class ScoreRecorderRegistry {
         while (scoreRecorderIterator.hasNext()) {
             ScoreRecorder scoreRecorder = scoreRecorderIterator.next();
             scoreRecorderIterator.remove();
+            scoreRecorder.registry = null;
+            scoreRecorder.activeIndex = -1;
             scoreRecorder.close();
         }
+        this.activeRecorders.clear();
+        this.sectionToRecorders.clear();
+        this.recorderToSection.clear();
+        this.capturedSounds.clear();
+    }
+
+    CapturedSoundLog getCapturedSounds() {
+        return this.capturedSounds;
     }
 
     public void tick() {
-        for (ScoreRecorder recorder : this.recorders) {
-            if (recorder.isRecording()) {
-                recorder.tick();
-            }
+        for (int i = this.activeRecorders.size() - 1; i >= 0; i--) {
+            ScoreRecorder recorder = this.activeRecorders.get(i);
+            recorder.tick();
+            // moving recorders are only moved between sections here
+            if (recorder.isRecording()) this.updateSection(recorder);
         }
+        // every recorder has written its sounds by now
+        this.capturedSounds.clear();
+    }
+
+    private void updateSection(ScoreRecorder recorder) {
+        long section = SectionPos.asLong(
+                SectionPos.blockToSectionCoord(Mth.floor(recorder.getXPos())),
+                SectionPos.blockToSectionCoord(Mth.floor(recorder.getYPos())),
+                SectionPos.blockToSectionCoord(Mth.floor(recorder.getZPos()))
+        );
+        if (this.recorderToSection.containsKey(recorder)) {
+            if (this.recorderToSection.getLong(recorder) == section) return;
+            this.removeFromSection(recorder);
+        }
+        this.recorderToSection.put(recorder, section);
+        this.sectionToRecorders.computeIfAbsent(section, s -> new ObjectArrayList<>()).add(recorder);
+    }
+
+    private void removeFromSection(ScoreRecorder recorder) {
+        if (!this.recorderToSection.containsKey(recorder)) return;
+        long section = this.recorderToSection.removeLong(recorder);
+        List<ScoreRecorder> sectionRecorders = this.sectionToRecorders.get(section);
+        sectionRecorders.remove(recorder);
+        if (sectionRecorders.isEmpty()) this.sectionToRecorders.remove(section);
     }
 
     public void captureSound(SoundEvent sound, double x, double y, double z, float volume, float pitch) {
-        for (ScoreRecorder recorder : this.recorders) {
-            if (recorder.isRecording() && recorder.isInRange(x, y, z, volume)) {
-                recorder.recordSound(sound, x, y, z, volume, pitch);
+        if (this.activeRecorders.isEmpty()) return;
+
+        double range = ScoreRecorder.getSoundRange(volume) + LOOSE_MARGIN_BLOCKS;
+        int minX = SectionPos.blockToSectionCoord(Mth.floor(x - range));
+        int minY = SectionPos.blockToSectionCoord(Mth.floor(y - range));
+        int minZ = SectionPos.blockToSectionCoord(Mth.floor(z - range));
+        int maxX = SectionPos.blockToSectionCoord(Mth.floor(x + range));
+        int maxY = SectionPos.blockToSectionCoord(Mth.floor(y + range));
+        int maxZ = SectionPos.blockToSectionCoord(Mth.floor(z + range));
+        long sectionCount = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+
+        // only added to the log once a recorder hears it
+        int logIndex = -1;
+
+        // loud sounds can reach more sections than there are recorders, so just check them all
+        if (sectionCount > this.activeRecorders.size()) {
+            for (int i = this.activeRecorders.size() - 1; i >= 0; i--) {
+                logIndex = this.captureSound(this.activeRecorders.get(i), logIndex, sound, x, y, z, volume, pitch);
             }
+            return;
+        }
+
+        for (int sectionX = minX; sectionX <= maxX; sectionX++) {
+            for (int sectionY = minY; sectionY <= maxY; sectionY++) {
+                for (int sectionZ = minZ; sectionZ <= maxZ; sectionZ++) {
+                    List<ScoreRecorder> sectionRecorders = this.sectionToRecorders.get(SectionPos.asLong(sectionX, sectionY, sectionZ));
+                    if (sectionRecorders == null) continue;
+                    for (int i = sectionRecorders.size() - 1; i >= 0; i--) {
+                        logIndex = this.captureSound(sectionRecorders.get(i), logIndex, sound, x, y, z, volume, pitch);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the sound in the log, which is -1 until it's been added.
+     */
+    private int captureSound(ScoreRecorder recorder, int logIndex, SoundEvent sound, double x, double y, double z, float volume, float pitch) {
+        if (recorder.isInRange(x, y, z, volume)) {
+            if (logIndex == -1) logIndex = this.capturedSounds.add(sound, x, y, z, volume, pitch);
+            recorder.captureSound(logIndex);
         }
+        return logIndex;
     }
 }
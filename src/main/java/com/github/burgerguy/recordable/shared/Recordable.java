@@ -1,18 +1,21 @@
 package com.github.burgerguy.recordable.shared;
 
+import com.github.burgerguy.recordable.server.database.ContentHash;
+import com.github.burgerguy.recordable.server.database.ScoreCollector;
 import com.github.burgerguy.recordable.server.database.ScoreDatabase;
 import com.github.burgerguy.recordable.server.database.ScoreDatabaseContainer;
+import com.github.burgerguy.recordable.server.network.ScoreSender;
 import com.github.burgerguy.recordable.server.score.ServerScoreRegistriesContainer;
 import com.github.burgerguy.recordable.shared.block.LabelerBlock;
 import com.github.burgerguy.recordable.shared.block.LabelerBlockEntity;
 import com.github.burgerguy.recordable.shared.block.RecorderBlock;
 import com.github.burgerguy.recordable.shared.block.RecorderBlockEntity;
+import com.github.burgerguy.recordable.shared.config.RecordableConfig;
 import com.github.burgerguy.recordable.shared.entrypoint.RecordableApi;
 import com.github.burgerguy.recordable.shared.item.CopperRecordItem;
 import com.github.burgerguy.recordable.shared.menu.ColorPalette;
 import com.github.burgerguy.recordable.shared.menu.LabelerMenu;
 import java.net.URI;
-import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +35,7 @@ import org.quiltmc.qsl.lifecycle.api.event.ServerLifecycleEvents;
 import org.quiltmc.qsl.lifecycle.api.event.ServerTickEvents;
 import org.quiltmc.qsl.lifecycle.api.event.ServerWorldLoadEvents;
 import org.quiltmc.qsl.networking.api.PacketByteBufs;
+import org.quiltmc.qsl.networking.api.ServerPlayConnectionEvents;
 import org.quiltmc.qsl.networking.api.ServerPlayNetworking;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,10 +53,14 @@ public class Recordable implements ModInitializer {
 	public static final ResourceLocation STOP_SCORE_INSTANCE_ID = new ResourceLocation(MOD_ID, "stop_score_instance");
 	public static final ResourceLocation REQUEST_SCORE_ID = new ResourceLocation(MOD_ID, "request_score");
 	public static final ResourceLocation SEND_SCORE_ID = new ResourceLocation(MOD_ID, "send_score");
+	public static final ResourceLocation ACK_SCORE_CHUNK_ID = new ResourceLocation(MOD_ID, "ack_score_chunk");
+	public static final ResourceLocation SEND_SCORE_MANIFEST_ID = new ResourceLocation(MOD_ID, "send_score_manifest");
+	public static final ResourceLocation SEND_SCORE_DATABASE_ID = new ResourceLocation(MOD_ID, "send_score_database");
 	public static final ResourceLocation FINALIZE_LABEL_ID = new ResourceLocation(MOD_ID, "finalize_label");
 	public static final ResourceLocation CANVAS_LEVEL_CHANGE_ID = new ResourceLocation(MOD_ID, "canvas_level_change");
 
 	public static ColorPalette COLOR_PALETTE;
+	public static RecordableConfig CONFIG;
 
 	@Override
 	public void onInitialize(ModContainer modContainer) {
@@ -85,6 +93,8 @@ public class Recordable implements ModInitializer {
 
 		GeckoLib.initialize();
 
+		CONFIG = RecordableConfig.load(QuiltLoader.getConfigDir().resolve(RecordableConfig.FILE_NAME));
+
 		ColorPalette colorPalette = new ColorPalette();
 		colorPalette.setToDefaults();
 		QuiltLoader.getEntrypointContainers(MOD_ID, RecordableApi.class).forEach(apiImpl -> apiImpl.getEntrypoint().modifyColorPalette(colorPalette));
@@ -109,9 +119,29 @@ public class Recordable implements ModInitializer {
 		//// event registry
 		ServerLifecycleEvents.STARTING.register(server -> {
 			// kinda conc, but should be fine for now
-			((ScoreDatabaseContainer) server).setScoreDatabase(new ScoreDatabase(server.getWorldPath(LevelResource.ROOT).resolve(SCORE_DATABASE_FILE_NAME)));
+			ScoreDatabase scoreDatabase = new ScoreDatabase(server.getWorldPath(LevelResource.ROOT).resolve(SCORE_DATABASE_FILE_NAME), CONFIG);
+			((ScoreDatabaseContainer) server).setScoreDatabase(scoreDatabase);
+			((ScoreDatabaseContainer) server).setScoreCollector(new ScoreCollector(server, scoreDatabase, CONFIG));
+			((ScoreDatabaseContainer) server).setScoreSender(new ScoreSender(scoreDatabase, CONFIG));
+		});
+		// this comes after the final save and after every level is unloaded, which still checkpoint and close recorders
+		ServerLifecycleEvents.STOPPED.register(server -> {
+			// the collector can be in the middle of a write, and the sender in the middle of a read, so they have to stop first
+			((ScoreDatabaseContainer) server).getScoreCollector().close();
+			((ScoreDatabaseContainer) server).getScoreSender().close();
+			((ScoreDatabaseContainer) server).getScoreDatabase().close();
+		});
+
+		ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+			// lets the client keep scores from this database between sessions
+			FriendlyByteBuf buffer = PacketByteBufs.create();
+			buffer.writeLong(((ScoreDatabaseContainer) server).getScoreDatabase().getDatabaseId());
+			sender.sendPacket(SEND_SCORE_DATABASE_ID, buffer);
+		});
+		ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+			ScoreSender scoreSender = ((ScoreDatabaseContainer) server).getScoreSender();
+			if (scoreSender != null) scoreSender.onDisconnect(handler.player);
 		});
-		ServerLifecycleEvents.STOPPING.register(server -> ((ScoreDatabaseContainer) server).getScoreDatabase().close());
 
 		// force stop all recorders, fixing block state
 		ServerWorldLoadEvents.UNLOAD.register((server, serverLevel) -> ((ServerScoreRegistriesContainer) serverLevel).getScoreRecorderRegistry().removeAndCloseAll());
@@ -123,28 +153,23 @@ public class Recordable implements ModInitializer {
 				((ServerScoreRegistriesContainer) serverLevel).getScoreRecorderRegistry().tick();
 				((ServerScoreRegistriesContainer) serverLevel).getScoreBroadcasterRegistry().tick(serverLevel);
 			}
+			// transfers which went over their rate limit continue here
+			((ScoreDatabaseContainer) server).getScoreSender().tick();
 		});
 
 		//// networking registry
 		ServerPlayNetworking.registerGlobalReceiver(REQUEST_SCORE_ID, (server, player, handler, buffer, responseSender) -> {
 			long scoreId = buffer.readLong();
+			// empty if the client doesn't have a copy
+			byte[] cachedHash = buffer.readByteArray(ContentHash.SIZE_BYTES);
+			// the database is read on the sender's workers
+			((ScoreDatabaseContainer) server).getScoreSender().request(player, scoreId, cachedHash.length == 0 ? null : cachedHash);
+		});
 
-			ScoreDatabase scoreDatabase = ((ScoreDatabaseContainer) server).getScoreDatabase();
-
-			try (ScoreDatabase.ScoreRequest scoreRequest = scoreDatabase.requestScore(scoreId)) {
-				ByteBuffer scoreData = scoreRequest.getData();
-				FriendlyByteBuf newPacketBuffer = PacketByteBufs.create();
-				newPacketBuffer.resetWriterIndex();
-				newPacketBuffer.writeLong(scoreId);
-
-				if (scoreData != null) {
-					newPacketBuffer.writeBytes(scoreData);
-				} else {
-					LOGGER.warn("Player " + player + " requested invalid score id " + scoreId);
-				}
-
-				responseSender.sendPacket(Recordable.SEND_SCORE_ID, newPacketBuffer);
-			}
+		ServerPlayNetworking.registerGlobalReceiver(ACK_SCORE_CHUNK_ID, (server, player, handler, buffer, responseSender) -> {
+			long scoreId = buffer.readLong();
+			int sequence = buffer.readInt();
+			((ScoreDatabaseContainer) server).getScoreSender().onChunkAcknowledged(player, scoreId, sequence);
 		});
 
 		ServerPlayNetworking.registerGlobalReceiver(FINALIZE_LABEL_ID, (server, player, handler, buffer, responseSender) -> {
@@ -183,4 +208,8 @@ public class Recordable implements ModInitializer {
 	public static ColorPalette getColorPalette() {
 		return COLOR_PALETTE;
 	}
+
+	public static RecordableConfig getConfig() {
+		return CONFIG;
+	}
 }
@@ -1,5 +1,7 @@
 package com.github.burgerguy.recordable.shared.block;
 
+import com.github.burgerguy.recordable.server.database.ScoreCollector;
+import com.github.burgerguy.recordable.server.database.ScoreDatabase;
 import com.github.burgerguy.recordable.server.database.ScoreDatabaseContainer;
 import com.github.burgerguy.recordable.server.score.ServerScoreRegistriesContainer;
 import com.github.burgerguy.recordable.server.score.record.BlockEntityScoreRecorder;
@@ -14,10 +16,12 @@ import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.LongTag;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientGamePacketListener;
 import net.minecraft.network.protocol.game.ClientboundBlockEntityDataPacket;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.item.ItemStack;
@@ -37,6 +41,9 @@ import software.bernie.geckolib3.core.manager.AnimationFactory;
 public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
     public static final BlockEntityType<RecorderBlockEntity> INSTANCE = FabricBlockEntityTypeBuilder.create(RecorderBlockEntity::new, RecorderBlock.INSTANCE).build(null);
     public static final ResourceLocation IDENTIFIER = new ResourceLocation(Recordable.MOD_ID, "recorder");
+    private static final Quaternion EAST_ROTATION = Vector3f.YP.rotationDegrees(90.0F);
+    private static final Quaternion SOUTH_ROTATION = Vector3f.YP.rotationDegrees(180.0F);
+    private static final Quaternion WEST_ROTATION = Vector3f.YP.rotationDegrees(-90.0F);
 
     private final AnimationFactory animationFactory;
     private final Supplier<Quaternion> rotationSupplier;
@@ -45,6 +52,11 @@ public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
 
     // server side only
     private BlockEntityScoreRecorder scoreRecorder;
+    /**
+     * The staging session of a recording that was still going when this was saved, which is recovered once the
+     * level is set.
+     */
+    private long pendingSessionId = -1;
 
 //    @Environment(EnvType.CLIENT)
 //    private boolean isRecording;
@@ -58,9 +70,9 @@ public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
             Direction micFacing = blockFacing.getOpposite();
             return switch (micFacing) {
                 case NORTH -> Quaternion.ONE;
-                case EAST -> Vector3f.YP.rotationDegrees(90.0F);
-                case SOUTH -> Vector3f.YP.rotationDegrees(180.0F);
-                case WEST -> Vector3f.YP.rotationDegrees(-90.0F);
+                case EAST -> EAST_ROTATION;
+                case SOUTH -> SOUTH_ROTATION;
+                case WEST -> WEST_ROTATION;
                 default -> throw new IllegalStateException("Unexpected rotation value: " + blockFacing);
             };
         };
@@ -73,16 +85,36 @@ public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
         if (tag.contains("record")) {
             this.recordItem = ItemStack.of(tag.getCompound("record"));
         }
+        if (tag.contains(ScoreCollector.RECORDING_SESSION_TAG, Tag.TAG_LONG)) {
+            this.pendingSessionId = tag.getLong(ScoreCollector.RECORDING_SESSION_TAG);
+        }
     }
 
     @Override
     public void saveAdditional(CompoundTag tag) {
-        // Save the current value of the number to the tag
+        this.saveRecord(tag);
+        long sessionId = this.getSessionIdToSave();
+        if (sessionId != -1) {
+            tag.putLong(ScoreCollector.RECORDING_SESSION_TAG, sessionId);
+            ScoreCollector.markRecordingSession(sessionId);
+        }
+
+        super.saveAdditional(tag);
+    }
+
+    private void saveRecord(CompoundTag tag) {
         if (this.hasRecord()) {
             tag.put("record", this.recordItem.save(new CompoundTag()));
         }
+    }
 
-        super.saveAdditional(tag);
+    private long getSessionIdToSave() {
+        if (this.scoreRecorder != null && this.scoreRecorder.isRecording()) {
+            // so everything up to this save can be recovered
+            this.scoreRecorder.checkpoint();
+            return this.scoreRecorder.getSessionId();
+        }
+        return this.pendingSessionId;
     }
 
     @Nullable
@@ -93,7 +125,10 @@ public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
 
     @Override
     public CompoundTag getUpdateTag() {
-        return this.saveWithoutMetadata();
+        // not a save, so it can't checkpoint or mark the recording session. the client only needs the record anyway.
+        CompoundTag tag = new CompoundTag();
+        this.saveRecord(tag);
+        return tag;
     }
 
     public boolean hasRecord() {
@@ -112,22 +147,52 @@ public class RecorderBlockEntity extends BlockEntity implements IAnimatable {
         }
     }
 
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setBlockState(BlockState blockState) {
+        super.setBlockState(blockState);
+        // the recorder caches its rotation, which depends on the facing
+        if (this.scoreRecorder != null) this.scoreRecorder.invalidateRotation();
+    }
+
     @Override
     public void setLevel(Level level) {
         super.setLevel(level);
         if (!level.isClientSide) {
             ServerLevel serverLevel = (ServerLevel) level;
+            ScoreDatabase database = ((ScoreDatabaseContainer) serverLevel.getServer()).getScoreDatabase();
             this.scoreRecorder = new BlockEntityScoreRecorder(
                     this,
                     this.rotationSupplier,
-                    ((ScoreDatabaseContainer) serverLevel.getServer()).getScoreDatabase(),
+                    database,
                     (r, id) -> {
                         this.recordItem.addTagElement("ScoreID", LongTag.valueOf(id));
                         this.dropRecord();
                     }
             );
             ((ServerScoreRegistriesContainer) serverLevel).getScoreRecorderRegistry().add(this.scoreRecorder);
+
+            if (this.pendingSessionId != -1) {
+                // the session is still saved with this until the record is tagged
+                long sessionId = this.pendingSessionId;
+                MinecraftServer server = serverLevel.getServer();
+                database.queueStagingRecovery(sessionId, id -> server.execute(() -> this.onRecovered(sessionId, id)));
+            }
+        }
+    }
+
+    /**
+     * If the chunk was unloaded before this, the session is recovered again the next time it's loaded, which gives
+     * the same score.
+     */
+    private void onRecovered(long sessionId, long id) {
+        if (this.isRemoved() || this.pendingSessionId != sessionId) return;
+        // the record stays in the recorder until someone takes it out, same as when it's full
+        if (id != -1 && this.recordItem != null) {
+            this.recordItem.addTagElement("ScoreID", LongTag.valueOf(id));
         }
+        this.pendingSessionId = -1;
+        this.setChanged();
     }
 
     @Override
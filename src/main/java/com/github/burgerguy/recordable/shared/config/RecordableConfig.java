@@ -0,0 +1,93 @@
+package com.github.burgerguy.recordable.shared.config;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Simple properties file backed config. Any option that is read but isn't in the file
+ * gets written back with its default value, so the file always lists every option.
+ */
+public class RecordableConfig {
+    public static final String FILE_NAME = "recordable.properties";
+
+    private final Path path;
+    private final Properties properties;
+
+    private RecordableConfig(Path path, Properties properties) {
+        this.path = path;
+        this.properties = properties;
+    }
+
+    public static RecordableConfig load(Path path) {
+        Properties properties = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                Recordable.LOGGER.warn("Unable to read config file " + path + ", using defaults", e);
+            }
+        }
+        return new RecordableConfig(path, properties);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = this.get(key, Long.toString(defaultValue));
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Recordable.LOGGER.warn("Invalid value \"" + value + "\" for config option " + key + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = this.get(key, Integer.toString(defaultValue));
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Recordable.LOGGER.warn("Invalid value \"" + value + "\" for config option " + key + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = this.get(key, Double.toString(defaultValue));
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            Recordable.LOGGER.warn("Invalid value \"" + value + "\" for config option " + key + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(this.get(key, Boolean.toString(defaultValue)));
+    }
+
+    private synchronized String get(String key, String defaultValue) {
+        String value = this.properties.getProperty(key);
+        if (value == null) {
+            this.properties.setProperty(key, defaultValue);
+            this.save();
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(this.path.getParent());
+            try (Writer writer = Files.newBufferedWriter(this.path, StandardCharsets.UTF_8)) {
+                this.properties.store(writer, "Recordable config");
+            }
+        } catch (IOException e) {
+            Recordable.LOGGER.warn("Unable to write config file " + this.path, e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stored scores start with a header byte. The low 4 bits are the codec, and the high 4 bits are the
+ * {@link ScoreFormat} version that the codec decodes to.
+ * <p>
+ * Raw codec:
+ * the score, as is
+ * <p>
+ * Deflate codecs:
+ * 4 byte decoded size (signed, but never negative)
+ * zlib stream, compressed with the codec's preset dictionary
+ * <p>
+ * {@link #CODEC_DEFLATE} uses {@link #V1_DICTIONARY}, and is only kept so scores stored with it can still be decoded.
+ * New scores are stored with {@link #CODEC_DEFLATE_COMPACT}, which uses {@link #COMPACT_DICTIONARY}.
+ * <p>
+ * Codecs and dictionaries can never change once something has been stored with them, only new ones can be added.
+ */
+public class ScoreCodec implements Closeable {
+    public static final int HEADER_SIZE_BYTES = 1;
+    public static final int CODEC_RAW = 0;
+    public static final int CODEC_DEFLATE = 1;
+    public static final int CODEC_DEFLATE_COMPACT = 2;
+
+    private static final int DEFLATE_SIZE_BYTES = 4;
+    /**
+     * Made of the floats V1 scores repeat the most. Those never show up in V2 or V3 scores.
+     */
+    private static final byte[] V1_DICTIONARY = createV1Dictionary();
+    /**
+     * Made of what V3 scores repeat the most, which is the palette strings, and the varints of sounds from note blocks
+     * near the recorder. Deflate prefers matches closer to the end of the dictionary, so the most common ones go last.
+     */
+    private static final byte[] COMPACT_DICTIONARY = createCompactDictionary();
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Deflater deflater;
+    private ByteBuffer scratchBuffer;
+
+    /**
+     * Instances aren't thread safe, because they hold a deflater and the buffer that was last encoded into.
+     */
+    public ScoreCodec(int compressionLevel) {
+        this.deflater = new Deflater(compressionLevel);
+        this.scratchBuffer = SCMemUtil.malloc(ScoreConstants.MAX_RECORD_SIZE_BYTES / 4).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static byte[] createV1Dictionary() {
+        ByteBuffer dictionary = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
+
+        // relative positions, which are usually block centers
+        for (int i = -16; i <= 16; i++) {
+            dictionary.putFloat(i);
+            dictionary.putFloat(i + 0.5F);
+        }
+
+        // note block volume and pitches. StrictMath is used so the dictionary is the same on every JVM.
+        for (int note = 0; note <= 24; note++) {
+            dictionary.putFloat(3.0F);
+            dictionary.putFloat((float) StrictMath.pow(2.0, (note - 12) / 12.0));
+        }
+
+        // everything else tends to be at a volume of 1 and a pitch of 1
+        dictionary.putFloat(1.0F);
+        dictionary.putFloat(1.0F);
+
+        return toArray(dictionary);
+    }
+
+    /**
+     * Everything here is written with the same methods scores are, so it matches byte for byte. The strings are
+     * written out rather than taken from the registry, so the dictionary never changes.
+     */
+    private static byte[] createCompactDictionary() {
+        ByteBuffer dictionary = ByteBuffer.allocate(2048).order(ByteOrder.BIG_ENDIAN);
+
+        // palette entries, with harp last because it's the default instrument
+        String[] instruments = {
+                "banjo", "pling", "bit", "didgeridoo", "cow_bell", "iron_xylophone", "xylophone", "chime", "bell",
+                "guitar", "flute", "bass", "hat", "snare", "basedrum", "harp"
+        };
+        for (String instrument : instruments) {
+            ScoreFormat.putString(dictionary, "minecraft:block.note_block." + instrument);
+        }
+
+        // block centers around the recorder, as x, y and z
+        for (int y = -1; y <= 0; y++) {
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    ScoreFormat.putSignedVarInt(dictionary, ScoreFormat.quantizePosition(x + 0.5F));
+                    ScoreFormat.putSignedVarInt(dictionary, ScoreFormat.quantizePosition(y + 0.5F));
+                    ScoreFormat.putSignedVarInt(dictionary, ScoreFormat.quantizePosition(z + 0.5F));
+                }
+            }
+        }
+
+        // everything else tends to be at a volume of 1 and a pitch of 1
+        ScoreFormat.putVarInt(dictionary, ScoreFormat.quantizeVolume(1.0F));
+        dictionary.putShort((short) ScoreFormat.quantizePitch(1.0F));
+
+        // the end of every note block sound, which is its volume and pitch. StrictMath is used so the dictionary
+        // is the same on every JVM.
+        for (int note = 0; note <= 24; note++) {
+            ScoreFormat.putVarInt(dictionary, ScoreFormat.quantizeVolume(3.0F));
+            dictionary.putShort((short) ScoreFormat.quantizePitch((float) StrictMath.pow(2.0, (note - 12) / 12.0)));
+        }
+
+        // tick group headers with a single sound, followed by the first palette index
+        for (int tickDelta = 20; tickDelta >= 1; tickDelta--) {
+            ScoreFormat.putVarInt(dictionary, tickDelta);
+            ScoreFormat.putVarInt(dictionary, 1);
+            ScoreFormat.putVarInt(dictionary, 0);
+        }
+
+        return toArray(dictionary);
+    }
+
+    private static byte[] toArray(ByteBuffer dictionary) {
+        dictionary.flip();
+        byte[] bytes = new byte[dictionary.remaining()];
+        dictionary.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The returned buffer is only valid until the next call to encode. The position of the given buffer
+     * isn't changed. If compressing doesn't make the score any smaller, it's stored raw.
+     */
+    public ByteBuffer encode(ByteBuffer score, int formatVersion) {
+        int scoreSize = score.remaining();
+
+        this.deflater.reset();
+        this.deflater.setDictionary(COMPACT_DICTIONARY);
+        this.deflater.setInput(score.duplicate());
+        this.deflater.finish();
+
+        ByteBuffer scratchBuffer = this.scratchBuffer.clear();
+        scratchBuffer.position(HEADER_SIZE_BYTES + DEFLATE_SIZE_BYTES);
+        while (!this.deflater.finished()) {
+            // once the output is as big as the input, there's no point in compressing
+            if (scratchBuffer.position() >= HEADER_SIZE_BYTES + scoreSize) break;
+            if (!scratchBuffer.hasRemaining()) scratchBuffer = this.growScratchBuffer();
+            this.deflater.deflate(scratchBuffer);
+        }
+
+        if (this.deflater.finished() && scratchBuffer.position() < HEADER_SIZE_BYTES + scoreSize) {
+            scratchBuffer.put(0, createHeader(CODEC_DEFLATE_COMPACT, formatVersion));
+            scratchBuffer.putInt(HEADER_SIZE_BYTES, scoreSize);
+            return scratchBuffer.flip();
+        }
+
+        if (scratchBuffer.capacity() < HEADER_SIZE_BYTES + scoreSize) {
+            scratchBuffer = this.growScratchBuffer(HEADER_SIZE_BYTES + scoreSize);
+        }
+        scratchBuffer.clear();
+        scratchBuffer.put(createHeader(CODEC_RAW, formatVersion));
+        scratchBuffer.put(score.duplicate());
+        return scratchBuffer.flip();
+    }
+
+    private ByteBuffer growScratchBuffer() {
+        return this.growScratchBuffer(this.scratchBuffer.capacity() * 2);
+    }
+
+    private ByteBuffer growScratchBuffer(int minCapacity) {
+        ByteBuffer oldBuffer = this.scratchBuffer;
+        ByteBuffer newBuffer = SCMemUtil.malloc(Math.max(minCapacity, oldBuffer.capacity() * 2)).order(ByteOrder.BIG_ENDIAN);
+        newBuffer.put(oldBuffer.flip());
+        SCMemUtil.free(oldBuffer);
+        this.scratchBuffer = newBuffer;
+        return newBuffer;
+    }
+
+    private static byte createHeader(int codec, int formatVersion) {
+        return (byte) ((formatVersion << 4) | codec);
+    }
+
+    public static int getCodec(ByteBuffer storedScore) {
+        return storedScore.get(storedScore.position()) & 0xF;
+    }
+
+    public static int getFormatVersion(ByteBuffer storedScore) {
+        return (storedScore.get(storedScore.position()) >>> 4) & 0xF;
+    }
+
+    /**
+     * If this is false, {@link #getRawView(ByteBuffer)} can be used instead of decoding into a new buffer.
+     */
+    public static boolean needsDecoding(ByteBuffer storedScore) {
+        return getCodec(storedScore) != CODEC_RAW;
+    }
+
+    public static ByteBuffer getRawView(ByteBuffer storedScore) {
+        return storedScore.slice(storedScore.position() + HEADER_SIZE_BYTES, storedScore.remaining() - HEADER_SIZE_BYTES)
+                          .order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public static int getDecodedSize(ByteBuffer storedScore) {
+        return switch (getCodec(storedScore)) {
+            case CODEC_RAW -> storedScore.remaining() - HEADER_SIZE_BYTES;
+            case CODEC_DEFLATE, CODEC_DEFLATE_COMPACT -> storedScore.duplicate().order(ByteOrder.BIG_ENDIAN).getInt(storedScore.position() + HEADER_SIZE_BYTES);
+            default -> throw new IllegalArgumentException("Unknown score codec " + getCodec(storedScore));
+        };
+    }
+
+    /**
+     * Decodes the stored score into the destination, which must have at least {@link #getDecodedSize(ByteBuffer)}
+     * bytes remaining. The position of the stored score isn't changed, and the position of the destination
+     * is moved past the decoded score. Safe to call from any thread.
+     */
+    public static void decode(ByteBuffer storedScore, ByteBuffer destination) throws DataFormatException {
+        int codec = getCodec(storedScore);
+        switch (codec) {
+            case CODEC_RAW -> destination.put(getRawView(storedScore));
+            case CODEC_DEFLATE, CODEC_DEFLATE_COMPACT -> {
+                int decodedSize = getDecodedSize(storedScore);
+                int destinationEnd = destination.position() + decodedSize;
+                Inflater inflater = INFLATER.get();
+                inflater.reset();
+                inflater.setInput(storedScore.slice(
+                        storedScore.position() + HEADER_SIZE_BYTES + DEFLATE_SIZE_BYTES,
+                        storedScore.remaining() - HEADER_SIZE_BYTES - DEFLATE_SIZE_BYTES
+                ));
+                ByteBuffer output = destination.slice(destination.position(), decodedSize);
+                while (!inflater.finished()) {
+                    if (inflater.inflate(output) == 0) {
+                        if (inflater.needsDictionary()) {
+                            inflater.setDictionary(codec == CODEC_DEFLATE ? V1_DICTIONARY : COMPACT_DICTIONARY);
+                        } else if (inflater.needsInput() || !output.hasRemaining()) {
+                            throw new DataFormatException("Stored score ended early or is bigger than its decoded size");
+                        }
+                    }
+                }
+                destination.position(destinationEnd);
+            }
+            default -> throw new DataFormatException("Unknown score codec " + codec);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.deflater.end();
+        SCMemUtil.free(this.scratchBuffer);
+    }
+}
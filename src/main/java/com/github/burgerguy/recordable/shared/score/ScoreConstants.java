@@ -4,8 +4,11 @@ public final class ScoreConstants {
 
     public static final int TICK_HEADER_SIZE_BYTES = 3;
     public static final int SOUND_SIZE_BYTES = 24;
+    /**
+     * Per score. Longer recordings are split into segments, see {@link ScoreManifest}.
+     */
     public static final int MAX_TICKS = 65535;
     public static final int MAX_SOUNDS_PER_TICK = 255;
-    public static final int MAX_RECORD_SIZE_BYTES = 1048576; // 1 MiB
+    public static final int MAX_RECORD_SIZE_BYTES = 1048576; // 1 MiB, per score
 
 }
@@ -0,0 +1,147 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import com.github.burgerguy.recordable.shared.util.SCMemUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Converts scores in any format to the latest {@link ScoreFormat}. Instances aren't thread safe, because they hold
+ * the buffer that was last encoded into, but they can be reused so nothing is reallocated between scores.
+ */
+public class ScoreEncoder implements ScoreVisitor, Closeable {
+    private static final int SOUND_FIELD_COUNT = 6;
+    private static final int PITCH_SIZE_BYTES = 2;
+
+    /**
+     * Maps the palette index in the score being read to the palette index in the score being written.
+     * Palette entries which aren't used by any sounds aren't written.
+     */
+    private final IntList sourceToPaletteIndex;
+    private final List<ResourceLocation> sourcePalette;
+    private final Object2IntMap<ResourceLocation> locationToPaletteIndex;
+    private final List<String> palette;
+    private final IntList tickGroups; // tick, sound count
+    private final IntList sounds; // palette index, x, y, z, volume, pitch
+    private int finalTick;
+    private ByteBuffer scratchBuffer;
+
+    public ScoreEncoder() {
+        this.sourceToPaletteIndex = new IntArrayList();
+        this.sourcePalette = new ObjectArrayList<>();
+        this.locationToPaletteIndex = new Object2IntOpenHashMap<>();
+        this.locationToPaletteIndex.defaultReturnValue(-1);
+        this.palette = new ObjectArrayList<>();
+        this.tickGroups = new IntArrayList();
+        this.sounds = new IntArrayList();
+        this.scratchBuffer = SCMemUtil.malloc(ScoreConstants.MAX_RECORD_SIZE_BYTES / 4).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * The returned buffer is only valid until the next call to encode. The position of the given buffer isn't changed.
+     */
+    public ByteBuffer encode(ByteBuffer score, int formatVersion) {
+        this.sourceToPaletteIndex.clear();
+        this.sourcePalette.clear();
+        this.locationToPaletteIndex.clear();
+        this.palette.clear();
+        this.tickGroups.clear();
+        this.sounds.clear();
+        this.finalTick = 0;
+
+        ScoreFormat.read(score, formatVersion, this);
+
+        int tickGroupCount = this.tickGroups.size() / 2;
+        int soundCount = this.sounds.size() / SOUND_FIELD_COUNT;
+        // worst case, so nothing has to be checked while writing
+        int maxSize = ScoreFormat.MAX_VAR_INT_BYTES * (4 + tickGroupCount * 2)
+                      + this.palette.stream().mapToInt(ScoreFormat::getStringSize).sum()
+                      + soundCount * (ScoreFormat.MAX_VAR_INT_BYTES * (SOUND_FIELD_COUNT - 1) + PITCH_SIZE_BYTES);
+        if (this.scratchBuffer.capacity() < maxSize) {
+            SCMemUtil.free(this.scratchBuffer);
+            this.scratchBuffer = SCMemUtil.malloc(maxSize).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        ByteBuffer buffer = this.scratchBuffer.clear();
+        ScoreFormat.putVarInt(buffer, this.palette.size());
+        for (int i = 0; i < this.palette.size(); i++) {
+            ScoreFormat.putString(buffer, this.palette.get(i));
+        }
+        ScoreFormat.putVarInt(buffer, tickGroupCount);
+        ScoreFormat.putVarInt(buffer, soundCount);
+        ScoreFormat.putVarInt(buffer, this.finalTick);
+
+        int previousTick = 0;
+        int soundIdx = 0;
+        for (int group = 0; group < tickGroupCount; group++) {
+            int tick = this.tickGroups.getInt(group * 2);
+            int groupSoundCount = this.tickGroups.getInt(group * 2 + 1);
+            ScoreFormat.putVarInt(buffer, tick - previousTick);
+            ScoreFormat.putVarInt(buffer, groupSoundCount);
+            previousTick = tick;
+
+            for (int i = 0; i < groupSoundCount; i++) {
+                ScoreFormat.putVarInt(buffer, this.sounds.getInt(soundIdx++));
+                ScoreFormat.putSignedVarInt(buffer, this.sounds.getInt(soundIdx++));
+                ScoreFormat.putSignedVarInt(buffer, this.sounds.getInt(soundIdx++));
+                ScoreFormat.putSignedVarInt(buffer, this.sounds.getInt(soundIdx++));
+                ScoreFormat.putVarInt(buffer, this.sounds.getInt(soundIdx++));
+                buffer.putShort((short) this.sounds.getInt(soundIdx++));
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    @Override
+    public void visitPaletteEntry(int paletteIndex, ResourceLocation soundLocation) {
+        this.sourcePalette.add(soundLocation);
+        this.sourceToPaletteIndex.add(-1);
+    }
+
+    @Override
+    public void visitTickGroup(int tick, int soundCount) {
+        this.tickGroups.add(tick);
+        this.tickGroups.add(soundCount);
+    }
+
+    @Override
+    public void visitSound(int sourcePaletteIndex, float relX, float relY, float relZ, float volume, float pitch) {
+        int paletteIndex = this.sourceToPaletteIndex.getInt(sourcePaletteIndex);
+        if (paletteIndex == -1) {
+            ResourceLocation soundLocation = this.sourcePalette.get(sourcePaletteIndex);
+            // the source palette could have the same sound more than once
+            paletteIndex = this.locationToPaletteIndex.getInt(soundLocation);
+            if (paletteIndex == -1) {
+                paletteIndex = this.palette.size();
+                this.palette.add(soundLocation.toString());
+                this.locationToPaletteIndex.put(soundLocation, paletteIndex);
+            }
+            this.sourceToPaletteIndex.set(sourcePaletteIndex, paletteIndex);
+        }
+
+        this.sounds.add(paletteIndex);
+        this.sounds.add(ScoreFormat.quantizePosition(relX));
+        this.sounds.add(ScoreFormat.quantizePosition(relY));
+        this.sounds.add(ScoreFormat.quantizePosition(relZ));
+        this.sounds.add(ScoreFormat.quantizeVolume(volume));
+        this.sounds.add(ScoreFormat.quantizePitch(pitch));
+    }
+
+    @Override
+    public void visitEnd(int finalTick) {
+        this.finalTick = finalTick;
+    }
+
+    @Override
+    public void close() {
+        SCMemUtil.free(this.scratchBuffer);
+    }
+}
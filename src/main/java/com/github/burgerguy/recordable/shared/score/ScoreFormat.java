@@ -0,0 +1,368 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import com.github.burgerguy.recordable.shared.Recordable;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.sounds.SoundEvent;
+
+/**
+ * All multibyte values are big endian. Varints are unsigned LEB128, and signed varints are zigzag encoded first.
+ * <p>
+ * V1 (raw) format, which is what recorders write while recording:
+ * <p>
+ * per tick:
+ * option 1:
+ * 2 bytes tick no. (unsigned)
+ * 1 byte sound count (unsigned)
+ * (count * 24) byte sound list
+ * option 2 (final tick):
+ * 2 bytes tick no. (unsigned)
+ * 1 byte sound count (value of 0)
+ * <p>
+ * per sound:
+ * 4 byte id (unsigned)
+ * 4 byte float relative x pos
+ * 4 byte float relative y pos
+ * 4 byte float relative z pos
+ * 4 byte float volume
+ * 4 byte float pitch
+ * <p>
+ * if no final tick is provided, the final tick is the last tick with sounds played
+ * <p>
+ * V2 (compact) format:
+ * <p>
+ * header:
+ * varint palette size
+ * (palette size) varint sound IDs
+ * varint tick group count
+ * varint total sound count
+ * varint final tick
+ * <p>
+ * per tick group:
+ * varint tick delta, from the previous group or from tick 0
+ * varint sound count (never 0)
+ * (count) sounds
+ * <p>
+ * per sound:
+ * varint palette index
+ * signed varint relative x pos, in 1/16ths of a block
+ * signed varint relative y pos, in 1/16ths of a block
+ * signed varint relative z pos, in 1/16ths of a block
+ * varint volume, in 1/256ths
+ * 2 byte pitch (unsigned), mapped from the 0.5 to 2.0 range the sound engine clamps to
+ * <p>
+ * V3 format, which is what scores are stored as:
+ * <p>
+ * Same as V2, except each palette entry is the sound's resource location instead of its registry ID:
+ * varint length
+ * (length) byte UTF-8 string
+ * <p>
+ * Registry IDs aren't stable between mod lists, so V1 and V2 sound IDs are resolved with the current registry when
+ * they're read, and the result is baked into the palette when they're converted to V3.
+ */
+public final class ScoreFormat {
+    public static final int V1 = 0;
+    public static final int V2 = 1;
+    public static final int V3 = 2;
+    public static final int LATEST = V3;
+
+    public static final int POSITION_STEPS_PER_BLOCK = 16;
+    public static final int VOLUME_STEPS = 256;
+    public static final float MIN_PITCH = 0.5F;
+    public static final float MAX_PITCH = 2.0F;
+    private static final int PITCH_STEPS = 0xFFFF;
+    public static final int MAX_VAR_INT_BYTES = 5;
+    /**
+     * Used for sounds that don't have a location, or aren't in the registry when a V1 or V2 score is read.
+     */
+    public static final ResourceLocation UNKNOWN_SOUND_LOCATION = new ResourceLocation(Recordable.MOD_ID, "unknown");
+
+    private ScoreFormat() {
+    }
+
+    /**
+     * Reads the whole score in the given format from the buffer's position to its limit, without moving the position.
+     */
+    public static void read(ByteBuffer buffer, int formatVersion, ScoreVisitor visitor) {
+        ByteBuffer reader = buffer.duplicate();
+        switch (formatVersion) {
+            case V1 -> readV1(reader, visitor);
+            case V2 -> readV2(reader, visitor);
+            case V3 -> readV3(reader, visitor);
+            default -> throw new IllegalArgumentException("Unknown score format version " + formatVersion);
+        }
+    }
+
+    private static void readV1(ByteBuffer reader, ScoreVisitor visitor) {
+        Int2IntMap soundIdToPaletteIndex = new Int2IntOpenHashMap();
+        soundIdToPaletteIndex.defaultReturnValue(-1);
+        int finalTick = 0;
+        while (reader.remaining() >= ScoreConstants.TICK_HEADER_SIZE_BYTES) {
+            int tick = Short.toUnsignedInt(reader.getShort());
+            int soundCount = Byte.toUnsignedInt(reader.get());
+            finalTick = tick;
+            if (soundCount == 0) break;
+            // a recorder that ran out of space can leave a partial tick behind
+            if (reader.remaining() < soundCount * ScoreConstants.SOUND_SIZE_BYTES) break;
+
+            visitor.visitTickGroup(tick, soundCount);
+            for (int i = 0; i < soundCount; i++) {
+                int soundId = reader.getInt();
+                int paletteIndex = soundIdToPaletteIndex.get(soundId);
+                if (paletteIndex == -1) {
+                    paletteIndex = soundIdToPaletteIndex.size();
+                    soundIdToPaletteIndex.put(soundId, paletteIndex);
+                    visitor.visitPaletteEntry(paletteIndex, getSoundLocation(soundId));
+                }
+                visitor.visitSound(
+                        paletteIndex,
+                        reader.getFloat(),
+                        reader.getFloat(),
+                        reader.getFloat(),
+                        reader.getFloat(),
+                        reader.getFloat()
+                );
+            }
+        }
+        visitor.visitEnd(finalTick);
+    }
+
+    private static void readV2(ByteBuffer reader, ScoreVisitor visitor) {
+        int paletteSize = getVarInt(reader);
+        ResourceLocation[] palette = new ResourceLocation[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = getSoundLocation(getVarInt(reader));
+        }
+        readCompact(reader, visitor, palette);
+    }
+
+    private static void readV3(ByteBuffer reader, ScoreVisitor visitor) {
+        int paletteSize = getVarInt(reader);
+        ResourceLocation[] palette = new ResourceLocation[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            ResourceLocation location = ResourceLocation.tryParse(getString(reader));
+            palette[i] = location == null ? UNKNOWN_SOUND_LOCATION : location;
+        }
+        readCompact(reader, visitor, palette);
+    }
+
+    /**
+     * Reads everything after the palette, which is the same for V2 and V3.
+     */
+    private static void readCompact(ByteBuffer reader, ScoreVisitor visitor, ResourceLocation[] palette) {
+        int tickGroupCount = getVarInt(reader);
+        int soundCount = getVarInt(reader);
+        int finalTick = getVarInt(reader);
+        visitor.visitHeader(tickGroupCount, soundCount, finalTick);
+        for (int i = 0; i < palette.length; i++) {
+            visitor.visitPaletteEntry(i, palette[i]);
+        }
+
+        int tick = 0;
+        for (int group = 0; group < tickGroupCount; group++) {
+            tick = readCompactTickGroup(reader, visitor, palette.length, tick);
+        }
+        visitor.visitEnd(finalTick);
+    }
+
+    /**
+     * Returns the tick of the group that was read.
+     */
+    private static int readCompactTickGroup(ByteBuffer reader, ScoreVisitor visitor, int paletteSize, int previousTick) {
+        int tick = previousTick + getVarInt(reader);
+        int groupSoundCount = getVarInt(reader);
+        visitor.visitTickGroup(tick, groupSoundCount);
+        for (int i = 0; i < groupSoundCount; i++) {
+            int paletteIndex = getVarInt(reader);
+            if (paletteIndex >= paletteSize) throw new IllegalArgumentException("Palette index " + paletteIndex + " out of bounds for palette of size " + paletteSize);
+            visitor.visitSound(
+                    paletteIndex,
+                    dequantizePosition(getSignedVarInt(reader)),
+                    dequantizePosition(getSignedVarInt(reader)),
+                    dequantizePosition(getSignedVarInt(reader)),
+                    dequantizeVolume(getVarInt(reader)),
+                    dequantizePitch(Short.toUnsignedInt(reader.getShort()))
+            );
+        }
+        return tick;
+    }
+
+    /**
+     * Moves past a compact tick group without visiting it, or throws {@link BufferUnderflowException} if it isn't all
+     * there yet.
+     */
+    private static void skipCompactTickGroup(ByteBuffer reader) {
+        getVarInt(reader);
+        int groupSoundCount = getVarInt(reader);
+        for (int i = 0; i < groupSoundCount; i++) {
+            for (int field = 0; field < 5; field++) {
+                getVarInt(reader);
+            }
+            reader.getShort();
+        }
+    }
+
+    /**
+     * Reads a V2 or V3 score while it's still arriving. Every call reads as much as has arrived since the last one,
+     * and the visitor is only ever given whole tick groups, so it can be used before the score is finished.
+     */
+    public static class StreamReader {
+        private final int formatVersion;
+        private final ScoreVisitor visitor;
+        private int position;
+        private ResourceLocation[] palette;
+        private int tickGroupCount;
+        private int finalTick;
+        private int groupsRead;
+        private int tick;
+        private boolean finished;
+
+        public StreamReader(int formatVersion, ScoreVisitor visitor) {
+            if (!canStream(formatVersion)) throw new IllegalArgumentException("Score format version " + formatVersion + " can't be streamed");
+            this.formatVersion = formatVersion;
+            this.visitor = visitor;
+        }
+
+        public static boolean canStream(int formatVersion) {
+            return formatVersion == V2 || formatVersion == V3;
+        }
+
+        /**
+         * The buffer has to hold the score from its start up to its limit, which can grow between calls. Its position
+         * isn't used or changed.
+         *
+         * @return if the whole score has been read
+         */
+        public boolean read(ByteBuffer received) {
+            if (this.finished) return true;
+            ByteBuffer reader = received.duplicate().position(this.position);
+            try {
+                if (this.palette == null) {
+                    this.readHeader(reader);
+                    this.position = reader.position();
+                }
+                while (this.groupsRead < this.tickGroupCount) {
+                    // make sure the whole group is there before the visitor sees any of it
+                    skipCompactTickGroup(reader.duplicate());
+                    this.tick = readCompactTickGroup(reader, this.visitor, this.palette.length, this.tick);
+                    this.groupsRead++;
+                    this.position = reader.position();
+                }
+            } catch (BufferUnderflowException e) {
+                return false;
+            }
+            this.visitor.visitEnd(this.finalTick);
+            this.finished = true;
+            return true;
+        }
+
+        private void readHeader(ByteBuffer reader) {
+            int paletteSize = getVarInt(reader);
+            if (paletteSize > reader.limit()) throw new IllegalArgumentException("Palette size " + paletteSize + " is bigger than the whole score");
+            ResourceLocation[] palette = new ResourceLocation[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                if (this.formatVersion == V2) {
+                    palette[i] = getSoundLocation(getVarInt(reader));
+                } else {
+                    ResourceLocation location = ResourceLocation.tryParse(getString(reader));
+                    palette[i] = location == null ? UNKNOWN_SOUND_LOCATION : location;
+                }
+            }
+            int tickGroupCount = getVarInt(reader);
+            int soundCount = getVarInt(reader);
+            int finalTick = getVarInt(reader);
+
+            // only kept once the whole header is there
+            this.palette = palette;
+            this.tickGroupCount = tickGroupCount;
+            this.finalTick = finalTick;
+            this.visitor.visitHeader(tickGroupCount, soundCount, finalTick);
+            for (int i = 0; i < palette.length; i++) {
+                this.visitor.visitPaletteEntry(i, palette[i]);
+            }
+        }
+    }
+
+    private static ResourceLocation getSoundLocation(int soundId) {
+        SoundEvent soundEvent = Registry.SOUND_EVENT.byId(soundId);
+        return soundEvent == null ? UNKNOWN_SOUND_LOCATION : soundEvent.getLocation();
+    }
+
+    public static int quantizePosition(float position) {
+        return Math.round(position * POSITION_STEPS_PER_BLOCK);
+    }
+
+    public static float dequantizePosition(int quantizedPosition) {
+        return (float) quantizedPosition / POSITION_STEPS_PER_BLOCK;
+    }
+
+    public static int quantizeVolume(float volume) {
+        return Math.round(Math.max(volume, 0.0F) * VOLUME_STEPS);
+    }
+
+    public static float dequantizeVolume(int quantizedVolume) {
+        return (float) quantizedVolume / VOLUME_STEPS;
+    }
+
+    public static int quantizePitch(float pitch) {
+        float clampedPitch = Math.min(Math.max(pitch, MIN_PITCH), MAX_PITCH);
+        return Math.round((clampedPitch - MIN_PITCH) / (MAX_PITCH - MIN_PITCH) * PITCH_STEPS);
+    }
+
+    public static float dequantizePitch(int quantizedPitch) {
+        return MIN_PITCH + (float) quantizedPitch / PITCH_STEPS * (MAX_PITCH - MIN_PITCH);
+    }
+
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < MAX_VAR_INT_BYTES * 7; shift += 7) {
+            byte currentByte = buffer.get();
+            value |= (currentByte & 0x7F) << shift;
+            if ((currentByte & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Varint is longer than " + MAX_VAR_INT_BYTES + " bytes");
+    }
+
+    /**
+     * The most bytes {@link #putString(ByteBuffer, String)} can write for the string.
+     */
+    public static int getStringSize(String string) {
+        return MAX_VAR_INT_BYTES + string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public static void putString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        putVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = getVarInt(buffer);
+        if (length > buffer.remaining()) throw new BufferUnderflowException();
+        String string = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    public static void putSignedVarInt(ByteBuffer buffer, int value) {
+        putVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    public static int getSignedVarInt(ByteBuffer buffer) {
+        int value = getVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
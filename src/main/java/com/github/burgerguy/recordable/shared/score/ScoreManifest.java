@@ -0,0 +1,73 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Recordings longer than a single score can hold are split into segments, which are stored as their own scores.
+ * The manifest lists them in order, with the tick each one starts on. Ticks in a segment are relative to its start.
+ * A segment can end on the tick the next one starts on, when it filled up partway through that tick.
+ * <p>
+ * Stored format, all big endian:
+ * 4 byte final tick
+ * 4 byte segment count
+ * per segment:
+ * 8 byte segment score ID
+ * 4 byte start tick
+ */
+public record ScoreManifest(long[] segmentIds, int[] startTicks, int finalTick) {
+    private static final int HEADER_SIZE_BYTES = 8;
+    private static final int SEGMENT_SIZE_BYTES = 12;
+
+    public ScoreManifest {
+        if (segmentIds.length != startTicks.length) throw new IllegalArgumentException("Segment IDs and start ticks don't match up");
+        if (segmentIds.length == 0) throw new IllegalArgumentException("Manifest has no segments");
+    }
+
+    public int getSegmentCount() {
+        return this.segmentIds.length;
+    }
+
+    /**
+     * Returns the index of the last segment starting at or before the given tick.
+     */
+    public int getSegmentIndex(int tick) {
+        int index = Arrays.binarySearch(this.startTicks, tick);
+        // when the tick isn't a start tick, this is the insertion point minus one
+        return index >= 0 ? index : Math.max(-index - 2, 0);
+    }
+
+    public int getSizeBytes() {
+        return HEADER_SIZE_BYTES + this.segmentIds.length * SEGMENT_SIZE_BYTES;
+    }
+
+    /**
+     * The buffer must be big endian.
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.putInt(this.finalTick);
+        buffer.putInt(this.segmentIds.length);
+        for (int i = 0; i < this.segmentIds.length; i++) {
+            buffer.putLong(this.segmentIds[i]);
+            buffer.putInt(this.startTicks[i]);
+        }
+    }
+
+    /**
+     * The buffer must be big endian.
+     */
+    public static ScoreManifest read(ByteBuffer buffer) {
+        int finalTick = buffer.getInt();
+        int segmentCount = buffer.getInt();
+        if (segmentCount < 0 || segmentCount > buffer.remaining() / SEGMENT_SIZE_BYTES) {
+            throw new IllegalArgumentException("Manifest segment count " + segmentCount + " is bigger than the manifest");
+        }
+        long[] segmentIds = new long[segmentCount];
+        int[] startTicks = new int[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segmentIds[i] = buffer.getLong();
+            startTicks[i] = buffer.getInt();
+        }
+        return new ScoreManifest(segmentIds, startTicks, finalTick);
+    }
+}
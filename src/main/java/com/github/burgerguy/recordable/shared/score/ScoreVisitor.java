@@ -0,0 +1,32 @@
+package com.github.burgerguy.recordable.shared.score;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Receives the contents of a score as it's read by {@link ScoreFormat#read(java.nio.ByteBuffer, int, ScoreVisitor)},
+ * so the same reader can be used no matter what's being built from the score.
+ */
+public interface ScoreVisitor {
+    /**
+     * Called before anything else, only for formats which have a header.
+     */
+    default void visitHeader(int tickGroupCount, int soundCount, int finalTick) {}
+
+    /**
+     * Called once for every palette index, before any sound uses it. Indices count up from 0.
+     * This is the only place sounds are identified, so anything that needs to resolve them only has to do it once.
+     */
+    default void visitPaletteEntry(int paletteIndex, ResourceLocation soundLocation) {}
+
+    /**
+     * Called for every tick with at least one sound, in order. The sounds in the group follow.
+     */
+    void visitTickGroup(int tick, int soundCount);
+
+    void visitSound(int paletteIndex, float relX, float relY, float relZ, float volume, float pitch);
+
+    /**
+     * Called last, with the tick the score ends on.
+     */
+    default void visitEnd(int finalTick) {}
+}
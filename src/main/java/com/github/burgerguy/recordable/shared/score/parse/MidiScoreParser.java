@@ -1,8 +1,7 @@
 package com.github.burgerguy.recordable.shared.score.parse;
 
 import com.github.burgerguy.recordable.client.score.FutureScore;
-import com.github.burgerguy.recordable.client.score.PartialSoundInstance;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import com.github.burgerguy.recordable.client.score.cache.ScoreCache;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
@@ -28,7 +27,7 @@ public class MidiScoreParser {
             9, SoundEvents.NOTE_BLOCK_XYLOPHONE
     );
 
-    public static void addToCache(Long2ObjectMap<FutureScore> scoreCache) {
+    public static void addToCache(ScoreCache scoreCache) {
         try {
             Sequence sequence = MidiSystem.getSequence(
                     Objects.requireNonNull(
@@ -49,21 +48,21 @@ public class MidiScoreParser {
                         float volume = (float) sm.getData2() / 100.0f * VOLUME_MULTIPLIER;
                         scoreConstructor.addSound(
                                 currentTick,
-                                new PartialSoundInstance(
-                                        channelToSoundEventMap.get(sm.getChannel()),
-                                        0.0f,
-                                        0.0f,
-                                        0.0f,
-                                        volume,
-                                        pitch
-                                )
+                                channelToSoundEventMap.get(sm.getChannel()),
+                                0.0f,
+                                0.0f,
+                                0.0f,
+                                volume,
+                                pitch
                         );
                     }
                 }
             }
 
-            FutureScore futureScore = scoreCache.computeIfAbsent(SCORE_ID, unused -> new FutureScore());
+            FutureScore futureScore = scoreCache.get(SCORE_ID);
             futureScore.request();
+            // the server doesn't have this one, so it can't be requested again
+            futureScore.pin();
             futureScore.setScore(scoreConstructor.createScore());
         } catch (InvalidMidiDataException | IOException e) {
             e.printStackTrace();
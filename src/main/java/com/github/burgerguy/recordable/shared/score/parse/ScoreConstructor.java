@@ -1,43 +1,104 @@
 package com.github.burgerguy.recordable.shared.score.parse;
 
-import com.github.burgerguy.recordable.client.score.PartialSoundInstance;
-import com.github.burgerguy.recordable.client.score.ScheduledSoundGroup;
 import com.github.burgerguy.recordable.client.score.Score;
-import java.util.ArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.floats.FloatList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import java.util.List;
+import net.minecraft.sounds.SoundEvent;
 
+/**
+ * Builds a score from sounds added in any order. Sounds on the same tick keep the order they were added in.
+ */
 public class ScoreConstructor {
 
-    private final List<PartialSoundInstance>[] scheduledSoundGroupArray;
+    private final int maxTicks;
+    private final Object2IntMap<SoundEvent> paletteIndices;
+    private final List<SoundEvent> palette;
+    private final IntList ticks;
+    private final IntList soundPaletteIndices;
+    private final FloatList sounds;
 
     public ScoreConstructor(int maxTicks) {
-        //noinspection unchecked
-        this.scheduledSoundGroupArray = (List<PartialSoundInstance>[]) new List<?>[maxTicks];
+        this.maxTicks = maxTicks;
+        this.paletteIndices = new Object2IntOpenHashMap<>();
+        this.paletteIndices.defaultReturnValue(-1);
+        this.palette = new ObjectArrayList<>();
+        this.ticks = new IntArrayList();
+        this.soundPaletteIndices = new IntArrayList();
+        // relX, relY, relZ, volume and pitch of each sound, one after another
+        this.sounds = new FloatArrayList();
     }
 
-    public void addSound(int tick, PartialSoundInstance partialSoundInstance) {
-        List<PartialSoundInstance> scheduledSoundGroup = this.scheduledSoundGroupArray[tick];
-        if (scheduledSoundGroup == null) {
-            scheduledSoundGroup = new ArrayList<>(4);
-            this.scheduledSoundGroupArray[tick] = scheduledSoundGroup;
+    public void addSound(int tick, SoundEvent soundEvent, float relX, float relY, float relZ, float volume, float pitch) {
+        if (tick < 0 || tick >= this.maxTicks) throw new IndexOutOfBoundsException("Tick " + tick + " out of bounds for length " + this.maxTicks);
+        int paletteIndex = this.paletteIndices.getInt(soundEvent);
+        if (paletteIndex == -1) {
+            paletteIndex = this.palette.size();
+            this.paletteIndices.put(soundEvent, paletteIndex);
+            this.palette.add(soundEvent);
         }
-        scheduledSoundGroup.add(partialSoundInstance);
+        this.ticks.add(tick);
+        this.soundPaletteIndices.add(paletteIndex);
+        this.sounds.add(relX);
+        this.sounds.add(relY);
+        this.sounds.add(relZ);
+        this.sounds.add(volume);
+        this.sounds.add(pitch);
     }
 
     public Score createScore() {
-        List<ScheduledSoundGroup> newScheduledSoundGroups = new ArrayList<>();
-        int lastNonNullTick = 0;
+        int soundCount = this.ticks.size();
 
-        for (int tick = 0; tick < this.scheduledSoundGroupArray.length; tick++) {
-            List<PartialSoundInstance> scheduledSoundGroup = this.scheduledSoundGroupArray[tick];
-            if (scheduledSoundGroup != null) {
-                newScheduledSoundGroups.add(new ScheduledSoundGroup(tick, scheduledSoundGroup.toArray(PartialSoundInstance[]::new)));
+        // counting sort by tick, which keeps sounds on the same tick in order
+        int[] tickStarts = new int[this.maxTicks + 1];
+        for (int i = 0; i < soundCount; i++) {
+            tickStarts[this.ticks.getInt(i) + 1]++;
+        }
+        int groupCount = 0;
+        int lastNonNullTick = 0;
+        for (int tick = 0; tick < this.maxTicks; tick++) {
+            if (tickStarts[tick + 1] != 0) {
+                groupCount++;
                 lastNonNullTick = tick;
             }
+            tickStarts[tick + 1] += tickStarts[tick];
+        }
+        int[] sortedSounds = new int[soundCount];
+        int[] nextPositions = tickStarts.clone();
+        for (int i = 0; i < soundCount; i++) {
+            sortedSounds[nextPositions[this.ticks.getInt(i)]++] = i;
         }
 
-
-        return new Score(newScheduledSoundGroups.toArray(ScheduledSoundGroup[]::new), lastNonNullTick);
+        Score.Builder builder = new Score.Builder();
+        builder.visitHeader(groupCount, soundCount, lastNonNullTick);
+        for (int i = 0; i < this.palette.size(); i++) {
+            builder.visitPaletteEntry(i, this.palette.get(i).getLocation());
+        }
+        for (int tick = 0; tick < this.maxTicks; tick++) {
+            int start = tickStarts[tick];
+            int end = tickStarts[tick + 1];
+            if (start == end) continue;
+            builder.visitTickGroup(tick, end - start);
+            for (int j = start; j < end; j++) {
+                int sound = sortedSounds[j];
+                int offset = sound * 5;
+                builder.visitSound(
+                        this.soundPaletteIndices.getInt(sound),
+                        this.sounds.getFloat(offset),
+                        this.sounds.getFloat(offset + 1),
+                        this.sounds.getFloat(offset + 2),
+                        this.sounds.getFloat(offset + 3),
+                        this.sounds.getFloat(offset + 4)
+                );
+            }
+        }
+        builder.visitEnd(lastNonNullTick);
+        return builder.build();
     }
 
 }